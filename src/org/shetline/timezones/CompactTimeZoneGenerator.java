@@ -20,6 +20,7 @@
 package org.shetline.timezones;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.time.zone.ZoneRulesProvider;
 import java.util.*;
 import java.util.regex.*;
@@ -33,8 +34,8 @@ import static org.shetline.timezones.TzUtil.to_int;
 
 public class CompactTimeZoneGenerator
 {
-  private static final int DEFAULT_MIN_YEAR = 1900;
-  private static final int DEFAULT_MAX_YEAR = 2050;
+  static final int DEFAULT_MIN_YEAR = 1900;
+  static final int DEFAULT_MAX_YEAR = 2050;
 
   private static final String DEFAULT_JS_OUTPUT_FILE   = "timezones.js";
   private static final String DEFAULT_JSON_OUTPUT_FILE = "timezones.json";
@@ -67,9 +68,26 @@ public class CompactTimeZoneGenerator
     boolean       showTable = false;
     boolean       includeSystemV = false;
     boolean       roundToMinutes = false;
+    boolean       yearIndex = false;
+    boolean       cutToTailRules = false;
+    boolean       streamTransitions = false;
+    long          byteBudget = 0;
+    int           mergeSinceYear = 0;
     String        outFileName = null;
     String        zoneInfoPath = null;
-    final String  simpleFlags = "5fhJjmqrtv";
+    String[]      diffArchives = null;
+    String        resolverFileName = null;
+    String        nameTableFileName = null;
+    String        shardDirectory = null;
+    String        shardGroupingFileName = null;
+    boolean       gzip = false;
+    boolean       compressionOrder = false;
+    boolean       profile = false;
+    String        metricsFileName = null;
+    int           serverPort = -1;
+    String        watchDirectory = null;
+    int           verifyStepMinutes = 0;
+    final String  simpleFlags = "5cefhiJjkmqrStvx";
 
     for (int i = 0; i < args.length; ++i) {
       String    arg = args[i];
@@ -96,12 +114,44 @@ public class CompactTimeZoneGenerator
           maxYear = to_int(parts[1], DEFAULT_MAX_YEAR);
         }
       }
+      else if ("-a".equals(arg) && hasMore)
+        mergeSinceYear = to_int(args[++i]);
+      else if ("-b".equals(arg) && hasMore)
+        byteBudget = Long.parseLong(args[++i]);
       else if ("-s".equals(arg) && hasMore) {
         singleZone = args[++i];
         filtered = false;
       }
+      else if ("-Z".equals(arg) && hasMore)
+        verifyStepMinutes = to_int(args[++i]);
       else if ("-z".equals(arg) && hasMore)
         zoneInfoPath = args[++i];
+      else if ("-d".equals(arg) && hasMore) {
+        diffArchives = args[++i].split(",");
+
+        if (diffArchives.length != 2) {
+          System.err.println("*** -d requires two archive file names, separated by a comma");
+          System.exit(-1);
+        }
+      }
+      else if ("-g".equals(arg) && hasMore)
+        shardGroupingFileName = args[++i];
+      else if ("-o".equals(arg) && hasMore)
+        shardDirectory = args[++i];
+      else if ("-n".equals(arg) && hasMore)
+        nameTableFileName = args[++i];
+      else if ("-p".equals(arg) && hasMore)
+        resolverFileName = args[++i];
+      else if ("-u".equals(arg) && hasMore)
+        serverPort = to_int(args[++i]);
+      else if ("-W".equals(arg) && hasMore)
+        watchDirectory = args[++i];
+      else if ("-w".equals(arg) && hasMore)
+        metricsFileName = args[++i];
+      else if ("-c".equals(arg))
+        cutToTailRules = true;
+      else if ("-e".equals(arg))
+        profile = true;
       else if ("-f".equals(arg))
         filtered = true;
       else if ("-h".equals(arg) || "--help".equals(arg)) {
@@ -110,42 +160,98 @@ public class CompactTimeZoneGenerator
         System.out.println("        -              Send output to stdout instead of a file.");
         System.out.println("        -5, --systemv  Include the SystemV timezones from the systemv file by uncommenting");
         System.out.println("                       the commented-out zone descriptions.");
+        System.out.println("        -a             <year> Treat time zones as aliases of one another if their");
+        System.out.println("                       transitions are identical from the start of the given year onward,");
+        System.out.println("                       keeping the most populous zone of each such set.");
+        System.out.println("        -b             <bytes> Fit compact output within the given size, trimming year");
+        System.out.println("                       ranges, rounding to minutes, aliasing zones which currently keep the");
+        System.out.println("                       same time, or dropping zones, whichever loses the least accuracy.");
+        System.out.println("        -c             Drop explicit transitions which are exactly reproduced by a zone's");
+        System.out.println("                       ongoing DST rules, as clients apply them, leaving clients to");
+        System.out.println("                       generate them instead. The year of the first dropped transition is");
+        System.out.println("                       added after the two DST rules.");
+        System.out.println("        -d             <old_archive,new_archive> Compile two local tz database archives");
+        System.out.println("                       (.tar.gz) and report, per zone, the first instant where the");
+        System.out.println("                       compiled transitions differ.");
+        System.out.println("        -e             Report wall time, CPU time and memory allocated for each phase of");
+        System.out.println("                       processing, and a histogram of per-zone compile times.");
         System.out.println("        -f             Filter out Etc/GMTxxxx and other time zones that are either redundant");
         System.out.println("                       or covered by options for creating fixed-offset time zones.");
+        System.out.println("        -g             <file_name> Custom shard assignments for the -o option. Each line has a");
+        System.out.println("                       shard name followed by a regular expression matching zone IDs.");
         System.out.println("        -h, --help     Display this help.");
+        System.out.println("        -i             Add a per-year index of transitions to each compact zone table, so");
+        System.out.println("                       that clients can jump directly to the transitions for a given year.");
         System.out.println("        -J, --json     Output JSON instead of JavaScript.");
         System.out.println("        -j             Use Java's built-in java.time time zones to supplement time zone");
         System.out.println("                       descriptions in the IANA source files.");
+        System.out.println("        -k             Order zones and offset dictionaries so that similar tables are next");
+        System.out.println("                       to each other, for better compression.");
         System.out.println("        -l             <URL or version number, such as \"2018c\", to parse and compile>");
         System.out.println("                       Default: " + IanaZonesAndRulesParser.DEFAULT_URL);
         System.out.println("        -m             Round all zone offsets to whole minutes.");
+        System.out.println("        -n             <file_name> Also write a sorted table of zone names, locales and");
+        System.out.println("                       abbreviations for zone name prefix searches.");
+        System.out.println("        -o             <directory> Write compact output as one file per region (or per");
+        System.out.println("                       custom shard, see -g), plus a manifest mapping each zone and alias");
+        System.out.println("                       to its shard and each shard to a content hash.");
+        System.out.println("        -p             <file_name> Also write a binary table for resolving zone IDs and");
+        System.out.println("                       aliases to output zones via a minimal perfect hash.");
         System.out.println("        -q             Display fewer warning messages.");
         System.out.println("        -r             Remove \"calendar rollbacks\" from time zone transitions -- that is,");
         System.out.println("                       modify time zone data to prevent situations where the calendar date");
         System.out.println("                       goes backwards as well as the hour and/or minute of the day.");
+        System.out.println("        -S             Stream compact output for very wide year ranges, such as 1800,9999,");
+        System.out.println("                       generating each zone's transitions as they're written instead of");
+        System.out.println("                       holding them all in memory. Can't be used with -a, -b, -c, -d, -g,");
+        System.out.println("                       -i, -j, -k, -n, -o, -p, -r, -t, -u, -W, -Z or -z.");
         System.out.println("        -s             <zone_id> Zone ID for a single time zone to be rendered.");
         System.out.println("        -t             Generate more human-readable transitions table instead of using the");
         System.out.println("                       compact notation.");
+        System.out.println("        -u             <port> Run as a local HTTP server, keeping compiled data in memory and");
+        System.out.println("                       serving output variants from http://localhost:<port>/zones, with");
+        System.out.println("                       query parameters years, round, rollbacks, filter, zone and format");
+        System.out.println("                       (js, json, text or resolver). Use port 0 for any free port.");
         System.out.println("        -v, --version  Display the version of this tool.");
+        System.out.println("        -W             <directory> Compile tz database source files (africa, asia, etc.)");
+        System.out.println("                       from a local directory, then watch the directory, recompiling the");
+        System.out.println("                       zones affected by each changed file and rewriting the output file.");
+        System.out.println("                       Only the -f, -J, -m, -r, -s, -t, -x and -y options apply.");
+        System.out.println("        -w             <file_name> Write the measurements described for -e as JSON (implies");
+        System.out.println("                       -e).");
+        System.out.println("        -x             Also write gzip-compressed (.gz) copies of output files.");
         System.out.println("        -y             <min_year,max_year> Year range for explicit time zone transitions.");
         System.out.println("                       Default: " + DEFAULT_MIN_YEAR + "," + DEFAULT_MAX_YEAR);
+        System.out.println("        -Z             <minutes> Verify the UTC offset of every compiled zone against java.time");
+        System.out.println("                       at the given interval, and at every transition, throughout the year");
+        System.out.println("                       range, reporting the first mismatch for each zone. Work is spread");
+        System.out.println("                       across all processors. Verification is done before applying -r.");
+        System.out.println("                       A warning is given if java.time uses a different tz database version.");
         System.out.println("        -z             <path_to_zoneinfo_directory> Validate this tool's output against");
         System.out.println("                       output from the standard zic tool stored in the given directory.");
         System.out.println("                       Validation is done before applying the -r option.");
         System.exit(0);
       }
+      else if ("-i".equals(arg))
+        yearIndex = true;
       else if ("-J".equals(arg) || "--json".equals(arg))
         json = true;
       else if ("-j".equals(arg))
         supplementFromJava = true;
+      else if ("-k".equals(arg))
+        compressionOrder = true;
       else if ("-m".equals(arg))
         roundToMinutes = true;
       else if ("-q".equals(arg))
         showWarnings = false;
       else if ("-r".equals(arg))
         fixCalendarRollbacks = true;
+      else if ("-S".equals(arg))
+        streamTransitions = true;
       else if ("-t".equals(arg))
         showTable = true;
+      else if ("-x".equals(arg))
+        gzip = true;
       else if ("-5".equals(arg) || "--systemv".equals(arg))
         includeSystemV = true;
       else if ("-v".equals(arg) || "--version".equals(arg)) {
@@ -158,11 +264,145 @@ public class CompactTimeZoneGenerator
         outFileName = arg;
     }
 
+    if (streamTransitions) {
+      // Streamed output is written zone by zone as it's compiled, so options which need every compiled zone at once,
+      // or which change what's compiled, aren't available.
+      List<String>  conflicts = new ArrayList<>();
+
+      if (mergeSinceYear != 0)
+        conflicts.add("-a");
+
+      if (byteBudget > 0)
+        conflicts.add("-b");
+
+      if (cutToTailRules)
+        conflicts.add("-c");
+
+      if (diffArchives != null)
+        conflicts.add("-d");
+
+      if (shardGroupingFileName != null)
+        conflicts.add("-g");
+
+      if (yearIndex)
+        conflicts.add("-i");
+
+      if (supplementFromJava)
+        conflicts.add("-j");
+
+      if (compressionOrder)
+        conflicts.add("-k");
+
+      if (nameTableFileName != null)
+        conflicts.add("-n");
+
+      if (shardDirectory != null)
+        conflicts.add("-o");
+
+      if (resolverFileName != null)
+        conflicts.add("-p");
+
+      if (fixCalendarRollbacks)
+        conflicts.add("-r");
+
+      if (showTable)
+        conflicts.add("-t");
+
+      if (serverPort >= 0)
+        conflicts.add("-u");
+
+      if (watchDirectory != null)
+        conflicts.add("-W");
+
+      if (verifyStepMinutes > 0)
+        conflicts.add("-Z");
+
+      if (zoneInfoPath != null)
+        conflicts.add("-z");
+
+      if (!conflicts.isEmpty()) {
+        System.err.println("*** -S can't be used with " + String.join(", ", conflicts));
+        System.exit(-1);
+      }
+    }
+
+    if (diffArchives != null) {
+      try {
+        TzDatabaseDiff.compare(new File(diffArchives[0]), new File(diffArchives[1]), minYear, maxYear, roundToMinutes,
+                               fixCalendarRollbacks, includeSystemV).report(System.out);
+        System.exit(0);
+      }
+      catch (IOException e) {
+        System.err.println(e.getMessage());
+        System.exit(-1);
+      }
+      catch (IanaParserException e) {
+        reportParserException(e);
+        System.exit(-1);
+      }
+    }
+
+    if (serverPort >= 0) {
+      try {
+        TzZoneServer  server = new TzZoneServer(urlOrVersion, includeSystemV, TzZoneServer.DEFAULT_CACHE_SIZE);
+
+        server.start(serverPort);
+        System.out.println("Serving tz database version " + server.getVersion() + " at http://localhost:" +
+                           server.getPort() + "/zones");
+      }
+      catch (IOException e) {
+        System.err.println(e.getMessage());
+        System.exit(-1);
+      }
+      catch (IanaParserException e) {
+        reportParserException(e);
+        System.exit(-1);
+      }
+
+      return;
+    }
+
     if (outFileName == null)
       outFileName = (showTable ? DEFAULT_TEXT_OUTPUT_FILE : (json ? DEFAULT_JSON_OUTPUT_FILE : DEFAULT_JS_OUTPUT_FILE));
 
+    if (watchDirectory != null) {
+      TzOutputVariant   variant = new TzOutputVariant();
+
+      variant.minYear = minYear;
+      variant.maxYear = maxYear;
+      variant.roundToMinutes = roundToMinutes;
+      variant.fixCalendarRollbacks = fixCalendarRollbacks;
+      variant.filtered = filtered;
+      variant.singleZone = singleZone;
+      variant.format = (showTable ? "text" : json ? "json" : "js");
+
+      TzSourceWatcher   watcher = new TzSourceWatcher(new File(watchDirectory), new File(outFileName), variant, includeSystemV, gzip);
+
+      try {
+        watcher.initialize();
+        System.out.println("Watching " + watchDirectory + " for changes");
+        watcher.watch();
+      }
+      catch (IOException e) {
+        System.err.println(e.getMessage());
+        System.exit(-1);
+      }
+      catch (IanaParserException e) {
+        reportParserException(e);
+        System.exit(-1);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      return;
+    }
+
     IanaZonesAndRulesParser         parser = new IanaZonesAndRulesParser(roundToMinutes, true);
     Map<String, TzTransitionList>   compiledZones;
+    TzGeneratorMetrics              metrics = new TzGeneratorMetrics(profile || metricsFileName != null);
+
+    parser.setMetrics(metrics);
 
     try {
       tzVersion = parser.parseFromOnline(urlOrVersion, includeSystemV);
@@ -171,24 +411,10 @@ public class CompactTimeZoneGenerator
       System.err.println(e.getMessage());
     }
     catch (IanaParserException e) {
-      System.err.print(e.getMessage());
-
-      if (e.getSource() != null)
-        System.err.print(" (" + e.getSource() + ")");
-
-      if (e.getLineNo() != 0)
-        System.err.print(" (line " + e.getLineNo() + ")");
-
-      System.err.println();
+      reportParserException(e);
       System.exit(-1);
     }
 
-    System.out.println("Compiling time zones");
-
-    TzCompiler  compiler = new TzCompiler(parser);
-
-    compiledZones = compiler.compileAll(minYear, maxYear);
-
     List<String>  savedZones = new ArrayList<>();
     Set<String>   zones = new HashSet<>(parser.getZoneIds());
 
@@ -197,28 +423,10 @@ public class CompactTimeZoneGenerator
       zones.addAll(ZoneRulesProvider.getAvailableZoneIds());
 
     for (String zoneId : zones) {
-      if (filtered && skippedZones.matcher(zoneId).matches())
-        continue;
-
       if (singleZone != null && !zoneId.equals(singleZone))
         continue;
 
-      String    region;
-      String    locale;
-      Matcher matcher = extendedRegions.matcher(zoneId);
-
-      if (matcher.matches()) {
-        region = matcher.group(1);
-        locale = matcher.group(2);
-      }
-      else {
-        int   pos = zoneId.indexOf('/');
-
-        region = (pos < 0 ? zoneId : zoneId.substring(0, pos));
-        locale = (pos < 0 ? null : zoneId.substring(pos + 1));
-      }
-
-      if (filtered && (locale == null || skippedRegions.matcher(region).matches()) && !miscUnique.matcher(zoneId).matches())
+      if (filtered && isFilteredOut(zoneId))
         continue;
 
       savedZones.add(zoneId);
@@ -231,6 +439,29 @@ public class CompactTimeZoneGenerator
       System.exit(-1);
     }
 
+    TzCompiler  compiler = new TzCompiler(parser);
+
+    if (streamTransitions) {
+      writeStreamed(compiler, tzVersion, zones.size(), savedZones, minYear, maxYear, roundToMinutes, filtered, json, showWarnings,
+                    toStdOut ? null : outFileName, gzip, metrics, metricsFileName);
+
+      return;
+    }
+
+    System.out.println("Compiling time zones");
+
+    TzGeneratorMetrics.Phase  compilePhase = metrics.start("compile");
+
+    try {
+      compiledZones = compiler.compileAll(minYear, maxYear, metrics);
+    }
+    finally {
+      compilePhase.close();
+    }
+
+    if (verifyStepMinutes > 0)
+      verifyWithJavaTime(compiledZones, savedZones, tzVersion, minYear, maxYear, verifyStepMinutes, roundToMinutes, metrics);
+
     Map<String, String>   zonesByCompactTable = new HashMap<>();
     Map<String, String>   compactTablesByZone = new HashMap<>();
     Map<String, TzTransitionList>
@@ -245,6 +476,8 @@ public class CompactTimeZoneGenerator
                        (showWarnings || fixCalendarRollbacks ? " / checking for calendar rollbacks" : ""));
 
     List<String>  validatedWithJava = new ArrayList<>();
+    int           cutZones = 0;
+    int           cutTransitions = 0;
 
     for (String zoneId : savedZones) {
       TzTransitionList  transitions = (compiledZones != null ? compiledZones.get(zoneId) : null);
@@ -254,74 +487,93 @@ public class CompactTimeZoneGenerator
         if (showWarnings && supplementFromJava)
           System.out.println("* Warning: " + zoneId + " will be obtained from Java");
 
-        transitions = TzTransitionList.getTzTransitionListJavaTime(zoneId, minYear, maxYear, roundToMinutes);
+        TzGeneratorMetrics.Phase  javaPhase = metrics.start("compile");
+
+        try {
+          transitions = TzTransitionList.getTzTransitionListJavaTime(zoneId, minYear, maxYear, roundToMinutes);
+        }
+        finally {
+          javaPhase.close();
+        }
+
         fromJava = true;
       }
 
       if (zoneInfoPath != null && !fromJava) {
-        TzTransitionList  zoneinfoTransitions = TzTransitionList.getZoneTransitionsFromZoneinfo(zoneInfoPath, zoneId, roundToMinutes);
+        TzGeneratorMetrics.Phase  validatePhase = metrics.start("validate");
+
+        try {
+          TzTransitionList  zoneinfoTransitions = TzTransitionList.getZoneTransitionsFromZoneinfo(zoneInfoPath, zoneId, roundToMinutes);
+
+          if (zoneinfoTransitions == null) {
+            TzTransitionList  javaTransitions = TzTransitionList.getTzTransitionListJavaTime(zoneId, minYear, maxYear, roundToMinutes);
 
-        if (zoneinfoTransitions == null) {
-          TzTransitionList  javaTransitions = TzTransitionList.getTzTransitionListJavaTime(zoneId, minYear, maxYear, roundToMinutes);
+            if (javaTransitions == null)
+              System.out.println("* Warning: " + zoneId + " could not be read from zoneinfo directory for validation");
+            else {
+              TzValidationEvent   event = new TzValidationEvent();
 
-          if (javaTransitions == null)
-            System.out.println("* Warning: " + zoneId + " could not be read from zoneinfo directory for validation");
+              validatedWithJava.add(zoneId);
+              event.begin();
+
+              if (!event.finish(zoneId, "java.time", transitions.closelyMatchesJavaTransitions(javaTransitions, roundToMinutes)))
+                System.err.println("*** Compiled " + zoneId + " does not match java.time version");
+            }
+          }
           else {
-            validatedWithJava.add(zoneId);
+            TzValidationEvent   event = new TzValidationEvent();
 
-            if (!transitions.closelyMatchesJavaTransitions(javaTransitions, roundToMinutes))
-              System.err.println("*** Compiled " + zoneId + " does not match java.time version");
+            zoneinfoTransitions.trim(minYear, maxYear);
+            event.begin();
+
+            if (!event.finish(zoneId, "zoneinfo", transitions.closelyMatchesZoneinfoTransitions(zoneinfoTransitions, roundToMinutes)))
+              System.err.println("*** Compiled " + zoneId + " does not match ZoneInfo version");
           }
         }
-        else {
-          zoneinfoTransitions.trim(minYear, maxYear);
-
-          if (!transitions.closelyMatchesZoneinfoTransitions(zoneinfoTransitions, roundToMinutes))
-            System.err.println("*** Compiled " + zoneId + " does not match ZoneInfo version");
+        finally {
+          validatePhase.close();
         }
       }
 
-      if ((showWarnings || fixCalendarRollbacks) &&
-          transitions.findCalendarRollbacks(fixCalendarRollbacks, showWarnings) == TzTransitionList.Rollbacks.ROLLBACKS_REMAIN)
-        System.err.println("*** Failed to fix calendar rollbacks in " + zoneId);
+      TzGeneratorMetrics.Phase  encodePhase = metrics.start("encode");
+      String                    ctt;
 
-      String  ctt = transitions.createCompactTransitionTable(fixCalendarRollbacks);
+      try {
+        if ((showWarnings || fixCalendarRollbacks) &&
+            transitions.findCalendarRollbacks(fixCalendarRollbacks, showWarnings) == TzTransitionList.Rollbacks.ROLLBACKS_REMAIN)
+          System.err.println("*** Failed to fix calendar rollbacks in " + zoneId);
 
-      if (zonesByCompactTable.containsKey(ctt)) {
-        --unique;
+        ctt = transitions.createCompactTransitionTable(fixCalendarRollbacks);
 
-        var oldId = zonesByCompactTable.get(ctt);
+        if (cutToTailRules) {
+          int   size = transitions.size();
 
-        if (getPopulation(oldId) >= getPopulation(zoneId)) {
-          duplicates.put(zoneId, zonesByCompactTable.get(ctt));
-          duplicateTransitionsByZone.put(zoneId, transitions);
-        }
-        else {
-          zonesByCompactTable.put(ctt, zoneId);
-          compactTablesByZone.remove(oldId);
-          transitionsByZone.remove(oldId);
-          compactTablesByZone.put(zoneId, ctt);
-          transitionsByZone.put(zoneId, transitions);
-          duplicates.put(oldId, zoneId);
-          duplicateTransitionsByZone.put(oldId, transitions);
+          ctt = transitions.cutToTailRules(ctt);
+
+          if (transitions.getTailRuleCutYear() != 0) {
+            ++cutZones;
+            cutTransitions += size - transitions.size();
+          }
         }
       }
-      else {
-        zonesByCompactTable.put(ctt, zoneId);
-        compactTablesByZone.put(zoneId, ctt);
-        transitionsByZone.put(zoneId, transitions);
+      finally {
+        encodePhase.close();
       }
-    }
-
-    for (var key : duplicates.keySet()) {
-      var parent = duplicates.get(key);
 
-      while (duplicates.containsKey(parent))
-        parent = duplicates.get(parent);
+      TzGeneratorMetrics.Phase  dedupPhase = metrics.start("dedup");
 
-      duplicates.put(key, parent);
+      try {
+        if (!addCompactTable(zoneId, ctt, transitions, zonesByCompactTable, compactTablesByZone, transitionsByZone,
+                             duplicates, duplicateTransitionsByZone))
+          --unique;
+      }
+      finally {
+        dedupPhase.close();
+      }
     }
 
+    resolveDuplicateChains(duplicates);
+
     if (validatedWithJava.size() > 0)
       System.out.println("Note: " + join(validatedWithJava.toArray(), ", ") + " validated using java.time instead of ZoneInfo");
 
@@ -333,104 +585,432 @@ public class CompactTimeZoneGenerator
                        (savedZones.size() < zones.size() ? "filtered down to " + savedZones.size() + ", " : "") +
                        unique + " unique");
 
+    if (cutToTailRules)
+      System.out.println(cutTransitions + " explicit transitions in " + cutZones + " time zones replaced by DST rules");
+
     List<String>  uniqueZones = new ArrayList<>(compactTablesByZone.keySet());
 
     Collections.sort(uniqueZones);
 
     System.out.println("Validating compact transition tables");
 
-    for (String zoneId : uniqueZones) {
-      String            table = compactTablesByZone.get(zoneId);
-      TzTransitionList  transitions = TzTransitionList.parseCompactZoneTable(table);
-      TzTransitionList  oldTransitions = transitionsByZone.get(zoneId);
+    TzGeneratorMetrics.Phase  validatePhase = metrics.start("validate");
+
+    try {
+      for (String zoneId : uniqueZones) {
+        String            table = compactTablesByZone.get(zoneId);
+        TzTransitionList  transitions = TzTransitionList.parseCompactZoneTable(table);
+        TzTransitionList  oldTransitions = transitionsByZone.get(zoneId);
 
-      if (!transitions.transitionsMatch(oldTransitions))
-        System.err.println("*** Compact table error: " + zoneId);
+        if (!transitions.transitionsMatch(oldTransitions))
+          System.err.println("*** Compact table error: " + zoneId);
+      }
+    }
+    finally {
+      validatePhase.close();
     }
 
-    if (!toStdOut)
-      System.out.println(showTable ? "Writing transition tables" : "Writing JavaScript time zone file");
+    if (mergeSinceYear != 0) {
+      TzGeneratorMetrics.Phase  mergePhase = metrics.start("merge");
 
-    try {
-      PrintWriter   out = (toStdOut ? new PrintWriter(System.out, true) : new PrintWriter(outFileName, "UTF-8"));
+      try {
+        TzZoneMerger  merger = new TzZoneMerger(transitionsByZone, compactTablesByZone, mergeSinceYear);
 
-      if (showTable) {
-        for (String zoneId : savedZones) {
-          if (duplicateZones.contains(zoneId))
-            zoneId = duplicates.get(zoneId);
+        merger.apply(uniqueZones, compactTablesByZone, transitionsByZone, duplicates, duplicateZones, duplicateTransitionsByZone);
+        System.out.println(merger.getMerges().size() + " time zones merged with zones identical since " + mergeSinceYear +
+                           ", " + uniqueZones.size() + " unique");
+      }
+      finally {
+        mergePhase.close();
+      }
+    }
 
-          TzTransitionList  transitions = transitionsByZone.get(zoneId);
+    String  comment = "tz database version: " + tzVersion + ", years " + minYear + "-" + maxYear;
 
-          transitions.dump(out, roundToMinutes);
-          out.println();
-          out.println();
-        }
+    if (roundToMinutes)
+      comment += ", rounded to nearest minute";
+
+    if (filtered)
+      comment += ", filtered";
+
+    if (fixCalendarRollbacks)
+      comment += ", calendar rollbacks eliminated";
+
+    if (mergeSinceYear != 0)
+      comment += ", zones merged if identical since " + mergeSinceYear;
+
+    if (byteBudget > 0 && !showTable) {
+      System.out.println("Fitting output to " + byteBudget + " bytes");
+      comment += ", fitted to " + byteBudget + " bytes";
+
+      TzGeneratorMetrics.Phase  fitPhase = metrics.start("fit");
+
+      try {
+        TzOutputBudget  budget = new TzOutputBudget(uniqueZones, compactTablesByZone, transitionsByZone, duplicates,
+                                                    duplicateTransitionsByZone, minYear, maxYear, fixCalendarRollbacks,
+                                                    cutToTailRules, yearIndex);
+        // Opening and closing lines, plus the line break after the last zone.
+        long            fixedBytes = (json ? 3 : comment.length() + 12);
+
+        if (!budget.fit(byteBudget - fixedBytes))
+          System.err.println("*** Output can't be reduced to " + byteBudget + " bytes");
+
+        budget.report(System.out);
+        budget.apply(uniqueZones, compactTablesByZone, transitionsByZone, duplicates, duplicateZones);
       }
-      else {
-        String  quote = (json ? "\"" : "'");
-        String  comment = "tz database version: " + tzVersion + ", years " + minYear + "-" + maxYear;
+      finally {
+        fitPhase.close();
+      }
+    }
 
-        if (roundToMinutes)
-          comment += ", rounded to nearest minute";
+    if (compressionOrder) {
+      TzGeneratorMetrics.Phase  orderPhase = metrics.start("encode");
 
-        if (filtered)
-          comment += ", filtered";
+      try {
+        compactTablesByZone.replaceAll((zoneId, table) -> TzCompressionOrder.sortOffsetDictionary(table));
+        TzCompressionOrder.orderZones(uniqueZones, compactTablesByZone);
+      }
+      finally {
+        orderPhase.close();
+      }
+    }
 
-        if (fixCalendarRollbacks)
-          comment += ", calendar rollbacks eliminated";
+    boolean                   writeShards = (shardDirectory != null && !showTable);
+    TzGeneratorMetrics.Phase  writePhase = metrics.start("write");
 
-        if (json)
-          out.println("{");
-        else
-          out.println("  { // " + comment);
+    try {
+      if (resolverFileName != null) {
+        System.out.println("Writing zone ID resolver table");
 
-        boolean   firstLine = true;
+        try (OutputStream out = new FileOutputStream(resolverFileName)) {
+          new TzZoneIdResolver(uniqueZones, duplicates).write(out);
+        }
+        catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
 
-        for (String zoneId : uniqueZones) {
-          if (!firstLine)
-            out.println(",");
-          else
-            firstLine = false;
+      if (nameTableFileName != null) {
+        System.out.println("Writing zone name search table");
 
-          var zoneData = appendPopulationAndCountries(compactTablesByZone.get(zoneId), zoneId);
+        Map<String, TzTransitionList>   namedZones = new HashMap<>(transitionsByZone);
 
-          out.print("  " + quote + zoneId + quote + ": " + quote + zoneData + quote);
+        namedZones.putAll(duplicateTransitionsByZone);
+
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(nameTableFileName), "UTF-8")) {
+          new TzZoneNameSearch(namedZones).write(out);
+        }
+        catch (IOException e) {
+          e.printStackTrace();
         }
+      }
 
-        for (String zoneId : duplicateZones) {
-          if (!firstLine)
-            out.println(",");
-          else
-            firstLine = false;
+      if (writeShards) {
+        System.out.println("Writing time zone shards");
+
+        try {
+          TzShardWriter   shardWriter = new TzShardWriter(new TzCompactOutput(compactTablesByZone, transitionsByZone, duplicates,
+                                                          duplicateTransitionsByZone, minYear, maxYear, yearIndex, json, comment),
+                                                          gzip);
+
+          if (shardGroupingFileName != null)
+            shardWriter.readGrouping(new File(shardGroupingFileName));
+
+          shardWriter.write(new File(shardDirectory), uniqueZones, duplicateZones, tzVersion);
+        }
+        catch (IOException e) {
+          System.err.println(e.getMessage());
+          System.exit(-1);
+        }
+      }
+      else {
+        if (!toStdOut)
+          System.out.println(showTable ? "Writing transition tables" : "Writing JavaScript time zone file");
 
-          var original = duplicates.get(zoneId);
-          var aliasFor = duplicateTransitionsByZone.containsKey(zoneId) ?
-                duplicateTransitionsByZone.get(zoneId).getAliasFor() : zoneId;
+        try {
+          StringWriter  buffer = (gzip && !toStdOut ? new StringWriter() : null);
+          PrintWriter   out = (toStdOut ? new PrintWriter(System.out, true) :
+                               buffer != null ? new PrintWriter(buffer) : new PrintWriter(outFileName, "UTF-8"));
 
-          if (aliasFor == null) {
-            var popAndC = getPopulationAndCountries(zoneId);
+          if (showTable) {
+            for (String zoneId : savedZones) {
+              if (duplicateZones.contains(zoneId))
+                zoneId = duplicates.get(zoneId);
 
-            if (popAndC != null)
-              original = popAndC.replace(';', ',') + "," + original;
+              TzTransitionList  transitions = transitionsByZone.get(zoneId);
 
-            original = '!' + original;
+              transitions.dump(out, roundToMinutes);
+              out.println();
+              out.println();
+            }
           }
+          else
+            new TzCompactOutput(compactTablesByZone, transitionsByZone, duplicates, duplicateTransitionsByZone, minYear, maxYear,
+                                yearIndex, json, comment).write(out, uniqueZones, duplicateZones);
+
+          out.close();
 
-          out.print("  " + quote + zoneId + quote + ": " + quote + original + quote);
+          if (buffer != null)
+            TzOutputFiles.write(new File(outFileName), buffer.toString().getBytes(StandardCharsets.UTF_8), true);
         }
+        catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+    finally {
+      writePhase.close();
+    }
 
-        out.println();
+    reportMetrics(metrics, metricsFileName, toStdOut && !writeShards ? System.err : System.out);
+  }
 
-        if (json)
-          out.println("}");
-        else
-          out.println("  };");
+  private static void reportMetrics(TzGeneratorMetrics metrics, String metricsFileName, PrintStream out)
+  {
+    metrics.report(out);
+
+    if (metricsFileName != null) {
+      try (Writer writer = new OutputStreamWriter(new FileOutputStream(metricsFileName), StandardCharsets.UTF_8)) {
+        metrics.writeJson(writer);
+      }
+      catch (IOException e) {
+        System.err.println(e.getMessage());
       }
+    }
+  }
+
+  /**
+   * @param outFileName Output file name, or null for stdout.
+   */
+  private static void writeStreamed(TzCompiler compiler, String tzVersion, int zoneCount, List<String> savedZones,
+                                    int minYear, int maxYear, boolean roundToMinutes, boolean filtered, boolean json,
+                                    boolean showWarnings, String outFileName, boolean gzip, TzGeneratorMetrics metrics,
+                                    String metricsFileName)
+  {
+    String  comment = "tz database version: " + tzVersion + ", years " + minYear + "-" + maxYear;
+
+    if (roundToMinutes)
+      comment += ", rounded to nearest minute";
+
+    if (filtered)
+      comment += ", filtered";
+
+    TzStreamedOutput  output = new TzStreamedOutput(compiler, minYear, maxYear, json, comment);
+
+    System.out.println("Compiling time zones and finding duplicate compact transition tables");
+
+    int   unique = output.add(savedZones, showWarnings, metrics);
 
+    System.out.println(zoneCount + " time zone IDs, " +
+                       (savedZones.size() < zoneCount ? "filtered down to " + savedZones.size() + ", " : "") +
+                       unique + " unique");
+
+    if (outFileName != null)
+      System.out.println("Writing JavaScript time zone file");
+
+    TzGeneratorMetrics.Phase  writePhase = metrics.start("write");
+
+    try {
+      PrintWriter   out = (outFileName == null ? new PrintWriter(System.out, true) : new PrintWriter(outFileName, "UTF-8"));
+
+      output.write(out, output.getUniqueZones(), output.getDuplicateZones());
       out.close();
+
+      if (gzip && outFileName != null)
+        TzOutputFiles.writeGzipCopy(new File(outFileName));
     }
     catch (IOException e) {
       e.printStackTrace();
     }
+    finally {
+      writePhase.close();
+    }
+
+    reportMetrics(metrics, metricsFileName, outFileName == null ? System.err : System.out);
+  }
+
+  private static void verifyWithJavaTime(Map<String, TzTransitionList> compiledZones, List<String> savedZones, String tzVersion,
+                                         int minYear, int maxYear, int stepMinutes, boolean roundToMinutes,
+                                         TzGeneratorMetrics metrics)
+  {
+    Map<String, TzTransitionList>   zones = new HashMap<>();
+
+    for (String zoneId : savedZones) {
+      if (compiledZones.get(zoneId) != null)
+        zones.put(zoneId, compiledZones.get(zoneId));
+    }
+
+    String  javaVersion = ZoneRulesProvider.getVersions("Etc/UTC").lastKey();
+
+    System.out.println("Verifying against java.time (tz database version " + javaVersion + ") every " + stepMinutes +
+                       " minutes");
+
+    if (!javaVersion.equals(tzVersion))
+      System.out.println("* Warning: java.time uses tz database version " + javaVersion + ", not " + tzVersion +
+                         ", so some mismatches may only be changes between versions");
+
+    TzJavaTimeVerifier.Result   result;
+    TzGeneratorMetrics.Phase    verifyPhase = metrics.start("verify");
+
+    try {
+      result = new TzJavaTimeVerifier(minYear, maxYear, stepMinutes * 60L, roundToMinutes)
+        .verify(zones, Runtime.getRuntime().availableProcessors());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    finally {
+      verifyPhase.close();
+    }
+
+    for (TzJavaTimeVerifier.Mismatch mismatch : result.mismatches)
+      System.err.println("*** " + mismatch);
+
+    System.out.println("Verified " + result.verified + " zones (" + result.checks + " instants), " +
+                       result.mismatches.size() + " mismatched" +
+                       (result.skipped.isEmpty() ? "" : ", " + result.skipped.size() + " unknown to java.time skipped"));
+  }
+
+  /**
+   * @return true if the -f option filters out the given zone.
+   */
+  static boolean isFilteredOut(String zoneId)
+  {
+    if (skippedZones.matcher(zoneId).matches())
+      return true;
+
+    String[]  regionAndLocale = splitRegionAndLocale(zoneId);
+    String    region = regionAndLocale[0];
+    String    locale = regionAndLocale[1];
+
+    return (locale == null || skippedRegions.matcher(region).matches()) && !miscUnique.matcher(zoneId).matches();
+  }
+
+  /**
+   * Add a zone's compact table, treating the zone as a duplicate if another zone already has the identical
+   * table. Of zones with identical tables, the most populous one keeps the table and the others become
+   * duplicates of it.
+   * @return true if the table is new, false if it duplicates an earlier zone's table.
+   */
+  static boolean addCompactTable(String zoneId, String ctt, TzTransitionList transitions,
+                                 Map<String, String> zonesByCompactTable, Map<String, String> compactTablesByZone,
+                                 Map<String, TzTransitionList> transitionsByZone, Map<String, String> duplicates,
+                                 Map<String, TzTransitionList> duplicateTransitionsByZone)
+  {
+    if (zonesByCompactTable.containsKey(ctt)) {
+      var oldId = zonesByCompactTable.get(ctt);
+
+      if (getPopulation(oldId) >= getPopulation(zoneId)) {
+        duplicates.put(zoneId, zonesByCompactTable.get(ctt));
+        duplicateTransitionsByZone.put(zoneId, transitions);
+      }
+      else {
+        zonesByCompactTable.put(ctt, zoneId);
+        compactTablesByZone.remove(oldId);
+        transitionsByZone.remove(oldId);
+        compactTablesByZone.put(zoneId, ctt);
+        transitionsByZone.put(zoneId, transitions);
+        duplicates.put(oldId, zoneId);
+        duplicateTransitionsByZone.put(oldId, transitions);
+      }
+
+      return false;
+    }
+
+    zonesByCompactTable.put(ctt, zoneId);
+    compactTablesByZone.put(zoneId, ctt);
+    transitionsByZone.put(zoneId, transitions);
+
+    return true;
+  }
+
+  /**
+   * Point each duplicate directly at the zone that finally keeps its table, in case that zone was itself
+   * later replaced by a more populous duplicate.
+   */
+  static void resolveDuplicateChains(Map<String, String> duplicates)
+  {
+    for (var entry : duplicates.entrySet()) {
+      var parent = entry.getValue();
+      String next;
+
+      while ((next = duplicates.get(parent)) != null)
+        parent = next;
+
+      entry.setValue(parent);
+    }
+  }
+
+  /**
+   * Split a zone ID into region and locale, such as "Europe" and "Paris", or "America/Argentina" and "Salta".
+   * @param zoneId Zone ID.
+   * @return Array of region and locale. The locale is null if the zone ID has no slash.
+   */
+  static String[] splitRegionAndLocale(String zoneId)
+  {
+    Matcher   matcher = extendedRegions.matcher(zoneId);
+
+    if (matcher.matches())
+      return new String[] {matcher.group(1), matcher.group(2)};
+
+    int   pos = zoneId.indexOf('/');
+
+    return new String[] {(pos < 0 ? zoneId : zoneId.substring(0, pos)), (pos < 0 ? null : zoneId.substring(pos + 1))};
+  }
+
+  static String formatZoneData(String zoneId, String table, TzTransitionList transitions, boolean yearIndex,
+                               int minYear, int maxYear)
+  {
+    String  zoneData = appendPopulationAndCountries(table, zoneId);
+
+    if (yearIndex)
+      zoneData = appendYearIndex(zoneData, transitions.createYearIndex(minYear, maxYear));
+
+    return zoneData;
+  }
+
+  // Zones which aren't IANA aliases, but merely share the same transitions, carry their own population and countries.
+  static String formatAliasData(String zoneId, String original, boolean ianaAlias)
+  {
+    if (!ianaAlias) {
+      var popAndC = getPopulationAndCountries(zoneId);
+
+      if (popAndC != null)
+        original = popAndC.replace(';', ',') + "," + original;
+
+      original = '!' + original;
+    }
+
+    return original;
+  }
+
+  // The year index, when present, is always the eighth section of a zone's data, after population and countries.
+  private static String appendYearIndex(String zoneData, String yearIndex)
+  {
+    if (yearIndex == null)
+      return zoneData;
+
+    int   partsCount = 1;
+
+    for (int i = 0; i < zoneData.length(); ++i) {
+      if (zoneData.charAt(i) == ';')
+        ++partsCount;
+    }
+
+    return zoneData + ";".repeat(8 - partsCount) + yearIndex;
+  }
+
+  static void reportParserException(IanaParserException e)
+  {
+    System.err.print(e.getMessage());
+
+    if (e.getSource() != null)
+      System.err.print(" (" + e.getSource() + ")");
+
+    if (e.getLineNo() != 0)
+      System.err.print(" (line " + e.getLineNo() + ")");
+
+    System.err.println();
   }
 }
@@ -35,10 +35,18 @@ public class IanaZonesAndRulesParser
   private final Map<String, IanaZone>   zoneMap = new HashMap<>();
   private final Map<String, String>     zoneAliases = new HashMap<>();
   private final Map<String, TzRuleSet>  ruleSetMap = new HashMap<>();
-
-  private boolean   roundToMinutes = false;
-  private boolean   printProgress = false;
-  private int       lineNo;
+  // Links as read, before removing those overridden by zones, and aliases added for legacy zones after parsing.
+  private final Map<String, String>     links = new HashMap<>();
+  private final Map<String, String>     legacyAliases = new HashMap<>();
+  // The source file each zone, rule and link came from, for re-parsing a single source.
+  private final Map<String, String>     zoneSources = new HashMap<>();
+  private final Map<TzRule, String>     ruleSources = new IdentityHashMap<>();
+  private final Map<String, String>     linkSources = new HashMap<>();
+
+  private boolean             roundToMinutes = false;
+  private boolean             printProgress = false;
+  private String              tzVersion = "unknown";
+  private TzGeneratorMetrics  metrics = TzGeneratorMetrics.DISABLED;
 
   public static final String    DEFAULT_URL = "https://www.iana.org/time-zones/repository/tzdata-latest.tar.gz";
   private static final String   URL_TEMPLATE_FOR_VERSION = "https://data.iana.org/time-zones/releases/tzdata{version}.tar.gz";
@@ -55,12 +63,36 @@ public class IanaZonesAndRulesParser
     this.printProgress = printProgress;
   }
 
+  public void setMetrics(TzGeneratorMetrics metrics)
+  {
+    this.metrics = metrics;
+  }
+
   public String parseFromOnline(boolean includeSystemV) throws IOException, IanaParserException
   {
     return parseFromOnline(null, includeSystemV);
   }
 
   public String parseFromOnline(String urlOrVersion, boolean includeSystemV) throws IOException, IanaParserException
+  {
+    byte[]                    archive;
+    TzGeneratorMetrics.Phase  downloadPhase = metrics.start("download");
+
+    try {
+      archive = downloadArchive(urlOrVersion);
+    }
+    finally {
+      downloadPhase.close();
+    }
+
+    return parseArchive(new ByteArrayInputStream(archive), includeSystemV);
+  }
+
+  /**
+   * @param urlOrVersion URL of a tz database archive, a version such as "2021a", or null for the latest version.
+   * @return The raw (gzipped) archive.
+   */
+  public static byte[] downloadArchive(String urlOrVersion) throws IOException
   {
     String  url;
 
@@ -73,7 +105,16 @@ public class IanaZonesAndRulesParser
 
     URLConnection   conn = new URL(url).openConnection();
 
-    return parseArchive(conn.getInputStream(), includeSystemV);
+    try (InputStream in = conn.getInputStream()) {
+      return in.readAllBytes();
+    }
+  }
+
+  public String parseArchive(File archive, boolean includeSystemV) throws IOException, IanaParserException
+  {
+    try (InputStream in = new FileInputStream(archive)) {
+      return parseArchive(in, includeSystemV);
+    }
   }
 
   public String parseArchive(InputStream archiveIn, boolean includeSystemV) throws IOException, IanaParserException
@@ -84,74 +125,151 @@ public class IanaZonesAndRulesParser
     Map<String, InputStream>  sources = new HashMap<>();
     String                    tzVersion = null;
     List<String>              tzSources = new ArrayList<>();
+    TzGeneratorMetrics.Phase  extractPhase = metrics.start("extract");
 
-    while ((entry = tarIn.getNextTarEntry()) != null) {
-      String  sourceName = entry.getName();
+    try {
+      while ((entry = tarIn.getNextTarEntry()) != null) {
+        String  sourceName = entry.getName();
 
-      if (contains(TZ_SOURCE_FILES, sourceName) || "version".equals(sourceName)) {
-        byte[]  fileContent = new byte[(int) entry.getSize()];
-        int     bytesRead = tarIn.read(fileContent);
+        if (contains(TZ_SOURCE_FILES, sourceName) || "version".equals(sourceName)) {
+          byte[]  fileContent = new byte[(int) entry.getSize()];
+          int     bytesRead = tarIn.readNBytes(fileContent, 0, fileContent.length);
 
-        if (bytesRead != fileContent.length)
-          System.err.println("*** Error reading " + sourceName + ": " + bytesRead + " != " + fileContent.length);
+          if (bytesRead != fileContent.length)
+            System.err.println("*** Error reading " + sourceName + ": " + bytesRead + " != " + fileContent.length);
 
-        if ("version".equals(sourceName)) {
-          tzVersion = new String(fileContent, StandardCharsets.UTF_8).trim();
+          if ("version".equals(sourceName)) {
+            tzVersion = new String(fileContent, StandardCharsets.UTF_8).trim();
 
-          if (printProgress)
-            System.out.println("tz database version: " + tzVersion);
-        }
-        else {
-          tzSources.add(sourceName);
+            if (printProgress)
+              System.out.println("tz database version: " + tzVersion);
+          }
+          else {
+            tzSources.add(sourceName);
 
-          // Uncomment the commented-out time zones in the systemv file
-          if ("systemv".equals(sourceName) && includeSystemV) {
-            String  stringContent = new String(fileContent, StandardCharsets.UTF_8);
+            if (printProgress)
+              System.out.println("Extracting " + sourceName);
 
-            stringContent = stringContent.replaceAll("## Zone", "Zone");
-            fileContent = stringContent.getBytes(StandardCharsets.UTF_8);
+            sources.put(sourceName, new ByteArrayInputStream(prepareSource(sourceName, fileContent, includeSystemV)));
           }
+        }
+      }
+    }
+    finally {
+      extractPhase.close();
+    }
 
-          if (printProgress)
-            System.out.println("Extracting " + sourceName);
+    parseSourcesAndAddLegacyAliases(tzSources, sources, includeSystemV);
+    this.tzVersion = tzVersion;
 
-          sources.put(sourceName, new ByteArrayInputStream(fileContent));
-        }
+    return tzVersion;
+  }
+
+  /**
+   * Parse tz database source files (africa, asia, etc.) from a directory, such as an extracted archive.
+   * @return The tz database version from the directory's version file, or "unknown" if there is no version file.
+   */
+  public String parseDirectory(File directory, boolean includeSystemV) throws IOException, IanaParserException
+  {
+    Map<String, InputStream>  sources = new HashMap<>();
+    List<String>              tzSources = new ArrayList<>();
+    File                      versionFile = new File(directory, "version");
+    String                    tzVersion = "unknown";
+
+    for (String sourceName : TZ_SOURCE_FILES) {
+      File  file = new File(directory, sourceName);
+
+      if (file.isFile()) {
+        tzSources.add(sourceName);
+        sources.put(sourceName, new ByteArrayInputStream(prepareSource(sourceName, readSource(file), includeSystemV)));
       }
     }
 
+    if (versionFile.isFile())
+      tzVersion = new String(readSource(versionFile), StandardCharsets.UTF_8).trim();
+
+    parseSourcesAndAddLegacyAliases(tzSources, sources, includeSystemV);
+    this.tzVersion = tzVersion;
+
+    return tzVersion;
+  }
+
+  private static byte[] readSource(File file) throws IOException
+  {
+    try (InputStream in = new FileInputStream(file)) {
+      return in.readAllBytes();
+    }
+  }
+
+  public static boolean isSourceName(String fileName)
+  {
+    return contains(TZ_SOURCE_FILES, fileName);
+  }
+
+  public static String[] getSourceNames()
+  {
+    return TZ_SOURCE_FILES.clone();
+  }
+
+  static byte[] prepareSource(String sourceName, byte[] content, boolean includeSystemV)
+  {
+    // Uncomment the commented-out time zones in the systemv file
+    if ("systemv".equals(sourceName) && includeSystemV) {
+      String  stringContent = new String(content, StandardCharsets.UTF_8);
+
+      stringContent = stringContent.replaceAll("## Zone", "Zone");
+      content = stringContent.getBytes(StandardCharsets.UTF_8);
+    }
+
+    return content;
+  }
+
+  private void parseSourcesAndAddLegacyAliases(List<String> tzSources, Map<String, InputStream> sources, boolean includeSystemV)
+      throws IanaParserException
+  {
     if (printProgress)
       System.out.println("Parsing tz database sources");
 
-    parseSources(tzSources.toArray(new String[0]), sources);
+    TzGeneratorMetrics.Phase  parsePhase = metrics.start("parse");
+
+    try {
+      parseSources(tzSources.toArray(new String[0]), sources);
+    }
+    finally {
+      parsePhase.close();
+    }
 
     // Add aliases if needed for legacy time zones. Not all substitutes exactly duplicate their originals.
     if (includeSystemV && !tzSources.contains("systemv")) {
-      zoneAliases.put("SystemV/AST4", getRootZone("America/Anguilla"));
-      zoneAliases.put("SystemV/AST4ADT", getRootZone("America/Goose_Bay"));
-      zoneAliases.put("SystemV/CST6", getRootZone("America/Belize"));
-      zoneAliases.put("SystemV/CST6CDT", getRootZone("America/Chicago"));
-      zoneAliases.put("SystemV/EST5", getRootZone("America/Atikokan"));
-      zoneAliases.put("SystemV/EST5EDT", getRootZone("America/New_York"));
-      zoneAliases.put("SystemV/HST10", getRootZone("HST"));
-      zoneAliases.put("SystemV/MST7", getRootZone("America/Creston"));
-      zoneAliases.put("SystemV/MST7MDT", getRootZone("America/Boise"));
-      zoneAliases.put("SystemV/PST8", getRootZone("Etc/GMT+8"));
-      zoneAliases.put("SystemV/PST8PDT", getRootZone("America/Los_Angeles"));
-      zoneAliases.put("SystemV/YST9", getRootZone("Etc/GMT+8"));
-      zoneAliases.put("SystemV/YST9YDT", getRootZone("America/Anchorage"));
+      legacyAliases.put("SystemV/AST4", getRootZone("America/Anguilla"));
+      legacyAliases.put("SystemV/AST4ADT", getRootZone("America/Goose_Bay"));
+      legacyAliases.put("SystemV/CST6", getRootZone("America/Belize"));
+      legacyAliases.put("SystemV/CST6CDT", getRootZone("America/Chicago"));
+      legacyAliases.put("SystemV/EST5", getRootZone("America/Atikokan"));
+      legacyAliases.put("SystemV/EST5EDT", getRootZone("America/New_York"));
+      legacyAliases.put("SystemV/HST10", getRootZone("HST"));
+      legacyAliases.put("SystemV/MST7", getRootZone("America/Creston"));
+      legacyAliases.put("SystemV/MST7MDT", getRootZone("America/Boise"));
+      legacyAliases.put("SystemV/PST8", getRootZone("Etc/GMT+8"));
+      legacyAliases.put("SystemV/PST8PDT", getRootZone("America/Los_Angeles"));
+      legacyAliases.put("SystemV/YST9", getRootZone("Etc/GMT+8"));
+      legacyAliases.put("SystemV/YST9YDT", getRootZone("America/Anchorage"));
     }
 
     if (!tzSources.contains("pacificnew"))
-      zoneAliases.put("US/Pacific-New", getRootZone("America/Los_Angeles"));
+      legacyAliases.put("US/Pacific-New", getRootZone("America/Los_Angeles"));
 
-    return tzVersion;
+    // Custom databases might not define the zones these aliases stand in for.
+    legacyAliases.values().removeIf(zoneId -> !zoneMap.containsKey(zoneId));
+    zoneAliases.putAll(legacyAliases);
   }
 
   private String getRootZone(String zoneId)
   {
-    while (zoneAliases.containsKey(zoneId))
-      zoneId = zoneAliases.get(zoneId);
+    String  original;
+
+    while ((original = zoneAliases.get(zoneId)) != null)
+      zoneId = original;
 
     return zoneId;
   }
@@ -164,98 +282,249 @@ public class IanaZonesAndRulesParser
 
         if (in == null)
           throw new IOException("File not found");
-        else {
-          try {
-            parseSource(sourceName, in);
-          }
-          catch (RuntimeException e) {
-            throw new IanaParserException(lineNo, sourceName, e.getMessage());
-          }
-        }
+        else
+          parseSource(sourceName, in);
       }
       catch (IOException e) {
         throw new IanaParserException(0, sourceName, "Failed reading \"" + sourceName + "\": " + e.getMessage());
       }
     }
 
+    updateAliases();
+  }
+
+  private void updateAliases() throws IanaParserException
+  {
+    Map<String, String>   aliases = new HashMap<>(links);
+
     // Remove aliases for anything that actually has its own defined zone.
     for (String zoneId : zoneMap.keySet()) {
-      if (zoneAliases.containsKey(zoneId))
-        zoneAliases.remove(zoneId);
+      if (aliases.containsKey(zoneId))
+        aliases.remove(zoneId);
     }
 
     // Make sure remaining aliases point to a defined zone.
-    for (String zoneId : zoneAliases.keySet()) {
-      String  original = zoneAliases.get(zoneId);
+    for (String zoneId : aliases.keySet()) {
+      String  original = aliases.get(zoneId);
 
       if (!zoneMap.containsKey(original))
         throw new IanaParserException(0, null, zoneId + " is mapped to unknown time zone " + original);
     }
+
+    zoneAliases.clear();
+    zoneAliases.putAll(aliases);
+    zoneAliases.putAll(legacyAliases);
+  }
+
+  /**
+   * Replace everything previously parsed from one source file with a new version of that file. The new version is
+   * parsed into a copy of this parser's state, which replaces the current state only if parsing succeeds, so a
+   * source with errors leaves the parser as it was.
+   * @return IDs of zones and aliases whose compiled transitions might have changed, including any which no
+   *         longer exist. These are zones defined in the source, zones using a rule set which changed, and
+   *         aliases whose target changed or refers to one of those zones.
+   */
+  public Set<String> reparseSource(String sourceName, InputStream source) throws IanaParserException
+  {
+    IanaZonesAndRulesParser   staged = new IanaZonesAndRulesParser(roundToMinutes, false);
+
+    staged.copyState(this);
+
+    Set<String>   changed = staged.replaceSource(sourceName, source);
+
+    copyState(staged);
+
+    return changed;
+  }
+
+  private void copyState(IanaZonesAndRulesParser other)
+  {
+    copyMap(other.zoneMap, zoneMap);
+    copyMap(other.zoneAliases, zoneAliases);
+    copyMap(other.ruleSetMap, ruleSetMap);
+    copyMap(other.links, links);
+    copyMap(other.legacyAliases, legacyAliases);
+    copyMap(other.zoneSources, zoneSources);
+    copyMap(other.ruleSources, ruleSources);
+    copyMap(other.linkSources, linkSources);
+    tzVersion = other.tzVersion;
+  }
+
+  private static <K, V> void copyMap(Map<K, V> from, Map<K, V> to)
+  {
+    to.clear();
+    to.putAll(from);
+  }
+
+  private Set<String> replaceSource(String sourceName, InputStream source) throws IanaParserException
+  {
+    Map<String, String>   oldAliases = new HashMap<>(zoneAliases);
+    Set<String>           zoneIds = sourceKeys(zoneSources, sourceName);
+    Set<String>           ruleNames = sourceRuleNames(sourceName);
+    Map<String, String>   oldZones = new HashMap<>();
+    Map<String, String>   oldRuleSets = new HashMap<>();
+
+    zoneIds.forEach(zoneId -> oldZones.put(zoneId, String.valueOf(zoneMap.get(zoneId))));
+    ruleNames.forEach(name -> oldRuleSets.put(name, String.valueOf(ruleSetMap.get(name))));
+
+    zoneMap.keySet().removeAll(zoneIds);
+    zoneSources.keySet().removeAll(zoneIds);
+    links.keySet().removeAll(sourceKeys(linkSources, sourceName));
+    linkSources.values().removeIf(sourceName::equals);
+
+    // Rule sets are replaced rather than modified, as compilers may be reading them from a snapshot.
+    ruleSetMap.replaceAll((name, ruleSet) -> {
+      TzRuleSet   copy = new TzRuleSet(name);
+
+      ruleSet.stream().filter(rule -> !sourceName.equals(ruleSources.get(rule))).forEach(copy::add);
+
+      return copy;
+    });
+    ruleSources.values().removeIf(sourceName::equals);
+    ruleSetMap.values().removeIf(List::isEmpty);
+
+    parseSources(new String[] {sourceName}, Collections.singletonMap(sourceName, source));
+
+    Set<String>   changed = new HashSet<>();
+    Set<String>   changedRuleSets = new HashSet<>();
+
+    zoneIds.addAll(sourceKeys(zoneSources, sourceName));
+    ruleNames.addAll(sourceRuleNames(sourceName));
+
+    for (String zoneId : zoneIds) {
+      if (!String.valueOf(zoneMap.get(zoneId)).equals(oldZones.get(zoneId)))
+        changed.add(zoneId);
+    }
+
+    for (String name : ruleNames) {
+      if (!String.valueOf(ruleSetMap.get(name)).equals(oldRuleSets.get(name)))
+        changedRuleSets.add(name);
+    }
+
+    for (IanaZone zone : zoneMap.values()) {
+      if (zone.stream().anyMatch(zoneRec -> zoneRec.rules != null && changedRuleSets.contains(zoneRec.rules)))
+        changed.add(zone.getZoneId());
+    }
+
+    Set<String>   aliasIds = new HashSet<>(oldAliases.keySet());
+
+    aliasIds.addAll(zoneAliases.keySet());
+
+    for (String aliasId : aliasIds) {
+      if (!Objects.equals(oldAliases.get(aliasId), zoneAliases.get(aliasId)) ||
+          (zoneAliases.containsKey(aliasId) && changed.contains(getRootZone(aliasId))))
+        changed.add(aliasId);
+    }
+
+    return changed;
+  }
+
+  private static Set<String> sourceKeys(Map<String, String> sources, String sourceName)
+  {
+    Set<String>   keys = new HashSet<>();
+
+    sources.forEach((key, source) -> {
+      if (source.equals(sourceName))
+        keys.add(key);
+    });
+
+    return keys;
+  }
+
+  private Set<String> sourceRuleNames(String sourceName)
+  {
+    Set<String>   names = new HashSet<>();
+
+    ruleSources.forEach((rule, source) -> {
+      if (source.equals(sourceName))
+        names.add(rule.name);
+    });
+
+    return names;
   }
 
   private void parseSource(String sourceName, InputStream source) throws IOException, IanaParserException
   {
-    BufferedReader    in = new BufferedReader(new InputStreamReader(source, StandardCharsets.UTF_8));
+    LineNumberReader  in = new LineNumberReader(new InputStreamReader(source, StandardCharsets.UTF_8));
     String            line;
     IanaZone          zone = null;
     IanaZoneRecord    zoneRec;
     String            zoneId = null;
 
-    lineNo = 0;
+    try {
+      while ((line = readLine(in)) != null) {
+        zoneRec = null;
 
-    while ((line = readLine(in)) != null) {
-      zoneRec = null;
+        if (line.startsWith("Rule")) {
+          TzRule          rule = TzRule.parseRule(line);
+          String          ruleName = rule.name;
+          TzRuleSet       ruleSet = ruleSetMap.get(ruleName);
 
-      if (line.startsWith("Rule")) {
-        TzRule          rule = TzRule.parseRule(line);
-        String          ruleName = rule.name;
-        TzRuleSet       ruleSet = ruleSetMap.get(ruleName);
+          if (ruleSet == null) {
+            ruleSet = new TzRuleSet(ruleName);
+            ruleSetMap.put(ruleName, ruleSet);
+          }
 
-        if (ruleSet == null) {
-          ruleSet = new TzRuleSet(ruleName);
-          ruleSetMap.put(ruleName, ruleSet);
+          ruleSet.add(rule);
+          ruleSources.put(rule, sourceName);
         }
+        else if (line.startsWith("Link")) {
+          String[]  parts = line.split("\\s+");
 
-        ruleSet.add(rule);
-      }
-      else if (line.startsWith("Link")) {
-        String[]  parts = line.split("\\s+");
-
-        zoneAliases.put(parts[2], parts[1]);
-      }
-      else if (line.startsWith("Zone")) {
-        if (zone != null)
-          throw new IanaParserException(lineNo, sourceName, "Zone " + zoneId + " was not properly terminated");
+          links.put(parts[2], parts[1]);
+          linkSources.put(parts[2], sourceName);
+        }
+        else if (line.startsWith("Zone")) {
+          if (zone != null)
+            throw new IanaParserException(in.getLineNumber(), sourceName, "Zone " + zoneId + " was not properly terminated");
 
-        StringBuilder   sb = new StringBuilder();
+          StringBuilder   sb = new StringBuilder();
 
-        zoneRec = IanaZoneRecord.parseZoneRecord(line, sb, roundToMinutes);
-        zoneId = sb.toString();
-        zone = new IanaZone(zoneId);
-      }
-      else if (zone != null)
-        zoneRec = IanaZoneRecord.parseZoneRecord(line, null, roundToMinutes);
+          zoneRec = IanaZoneRecord.parseZoneRecord(line, sb, roundToMinutes);
+          zoneId = sb.toString();
+          zone = new IanaZone(zoneId);
+        }
+        else if (zone != null)
+          zoneRec = IanaZoneRecord.parseZoneRecord(line, null, roundToMinutes);
 
-      if (zoneRec != null) {
-        zone.add(zoneRec);
+        if (zoneRec != null) {
+          zone.add(zoneRec);
 
-        if (zoneRec.until == MAX_JS_SAFE_INTEGER) {
-          zoneMap.put(zoneId, zone);
-          zone = null;
+          if (zoneRec.until == MAX_JS_SAFE_INTEGER) {
+            zoneMap.put(zoneId, zone);
+            zoneSources.put(zoneId, sourceName);
+            zone = null;
+          }
         }
       }
     }
+    catch (RuntimeException e) {
+      throw new IanaParserException(in.getLineNumber(), sourceName, e.getMessage());
+    }
 
     in.close();
   }
 
+  /**
+   * @return An immutable copy of everything parsed so far, safe for concurrent use.
+   */
+  public TzDatabase snapshot()
+  {
+    return new TzDatabase(tzVersion, zoneMap, zoneAliases, ruleSetMap);
+  }
+
   public List<String> getZoneIds()
+  {
+    return sortZoneIds(zoneMap.keySet(), zoneAliases.keySet());
+  }
+
+  static List<String> sortZoneIds(Collection<String> zones, Collection<String> aliases)
   {
     List<String>  zoneIds = new ArrayList<>();
 
-    zoneIds.addAll(zoneMap.keySet());
+    zoneIds.addAll(zones);
     zoneIds = zoneIds.stream().map(zone -> "*" + zone).collect(Collectors.toList());
-    zoneIds.addAll(zoneAliases.keySet());
+    zoneIds.addAll(aliases);
 
     Collections.sort(zoneIds);
     zoneIds = zoneIds.stream().map(zone -> zone.replace("*", "")).collect(Collectors.toList());
@@ -270,10 +539,16 @@ public class IanaZonesAndRulesParser
 
   public IanaZone getZone(String zoneId)
   {
-    if (zoneAliases.containsKey(zoneId))
-      zoneId = zoneAliases.get(zoneId);
+    return zoneMap.get(zoneAliases.getOrDefault(zoneId, zoneId));
+  }
+
+  public TzZoneIdResolver createZoneIdResolver()
+  {
+    List<String>  canonicalIds = new ArrayList<>(zoneMap.keySet());
+
+    Collections.sort(canonicalIds);
 
-    return zoneMap.get(zoneId);
+    return new TzZoneIdResolver(canonicalIds, zoneAliases);
   }
 
   public TzRuleSet getRuleSet(String rulesName)
@@ -281,14 +556,13 @@ public class IanaZonesAndRulesParser
     return ruleSetMap.get(rulesName);
   }
 
-  private String readLine(BufferedReader in) throws IOException
+  private static String readLine(LineNumberReader in) throws IOException
   {
     String  line;
 
     do {
       do {
         line = in.readLine();
-        ++lineNo;
       } while (line != null && (line.startsWith("#") || line.length() == 0));
 
       if (line != null) {
@@ -0,0 +1,134 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.PrintWriter;
+import java.util.*;
+
+import static org.shetline.timezones.CompactTimeZoneGenerator.formatAliasData;
+import static org.shetline.timezones.CompactTimeZoneGenerator.formatZoneData;
+
+
+/**
+ * Everything needed to write compact JavaScript or JSON time zone output, for all zones or for any subset of them.
+ */
+public class TzCompactOutput
+{
+  private final Map<String, String>             compactTablesByZone;
+  private final Map<String, TzTransitionList>   transitionsByZone;
+  private final Map<String, String>             duplicates;
+  private final Map<String, TzTransitionList>   duplicateTransitionsByZone;
+  private final int                             minYear;
+  private final int                             maxYear;
+  private final boolean                         yearIndex;
+  private final boolean                         json;
+  private final String                          comment;
+
+  public TzCompactOutput(Map<String, String> compactTablesByZone, Map<String, TzTransitionList> transitionsByZone,
+                         Map<String, String> duplicates, Map<String, TzTransitionList> duplicateTransitionsByZone,
+                         int minYear, int maxYear, boolean yearIndex, boolean json, String comment)
+  {
+    this.compactTablesByZone = compactTablesByZone;
+    this.transitionsByZone = transitionsByZone;
+    this.duplicates = duplicates;
+    this.duplicateTransitionsByZone = duplicateTransitionsByZone;
+    this.minYear = minYear;
+    this.maxYear = maxYear;
+    this.yearIndex = yearIndex;
+    this.json = json;
+    this.comment = comment;
+  }
+
+  public boolean isJson()
+  {
+    return json;
+  }
+
+  public String getComment()
+  {
+    return comment;
+  }
+
+  /**
+   * @param zoneId Zone ID of either a unique zone or an alias.
+   * @return The ID of the unique zone whose table the given zone uses, or null if the zone is unknown.
+   */
+  public String getUniqueZone(String zoneId)
+  {
+    if (compactTablesByZone.containsKey(zoneId))
+      return zoneId;
+
+    return duplicates.get(zoneId);
+  }
+
+  /**
+   * @param out Destination for output.
+   * @param uniqueZones Zones to write in full, in order.
+   * @param aliases Zones to write as references to other zones, in order.
+   */
+  public void write(PrintWriter out, List<String> uniqueZones, List<String> aliases)
+  {
+    String  quote = (json ? "\"" : "'");
+
+    if (json)
+      out.println("{");
+    else
+      out.println("  { // " + comment);
+
+    boolean   firstLine = true;
+
+    for (String zoneId : uniqueZones) {
+      if (!firstLine)
+        out.println(",");
+      else
+        firstLine = false;
+
+      out.print("  " + quote + zoneId + quote + ": " + quote);
+      writeZoneData(out, zoneId);
+      out.print(quote);
+    }
+
+    for (String zoneId : aliases) {
+      if (!firstLine)
+        out.println(",");
+      else
+        firstLine = false;
+
+      var original = duplicates.get(zoneId);
+      var aliasFor = duplicateTransitionsByZone.containsKey(zoneId) ?
+            duplicateTransitionsByZone.get(zoneId).getAliasFor() : zoneId;
+
+      out.print("  " + quote + zoneId + quote + ": " + quote + formatAliasData(zoneId, original, aliasFor != null) + quote);
+    }
+
+    out.println();
+
+    if (json)
+      out.println("}");
+    else
+      out.println("  };");
+  }
+
+  protected void writeZoneData(PrintWriter out, String zoneId)
+  {
+    out.print(formatZoneData(zoneId, compactTablesByZone.get(zoneId), transitionsByZone.get(zoneId), yearIndex,
+                             minYear, maxYear));
+  }
+}
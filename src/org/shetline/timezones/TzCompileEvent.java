@@ -0,0 +1,50 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import jdk.jfr.*;
+
+
+/**
+ * JDK Flight Recorder event for compiling a single time zone. Like all JFR events, it costs nothing beyond
+ * construction (which escape analysis removes) unless a recording with this event enabled is running.
+ */
+@Name("org.shetline.timezones.Compile")
+@Label("Time Zone Compile")
+@Category({"Time Zones", "Compiler"})
+@Description("Compilation of one time zone from its zone records and rule sets")
+@StackTrace(false)
+public final class TzCompileEvent extends Event
+{
+  @Label("Zone ID")
+  public String   zoneId;
+
+  @Label("Zone Records")
+  @Description("Number of zone records processed, which may be fewer than the zone has if later records fall " +
+               "outside the year range")
+  public int      zoneRecords;
+
+  @Label("Rule Sets")
+  @Description("Number of distinct named rule sets used by the processed zone records")
+  public int      ruleSets;
+
+  @Label("Transitions")
+  public int      transitions;
+}
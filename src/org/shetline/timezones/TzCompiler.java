@@ -29,30 +29,51 @@ import static org.shetline.timezones.TzUtil.*;
 
 public class TzCompiler
 {
-  private final IanaZonesAndRulesParser   parser;
+  private final TzDatabase  database;
 
+  /**
+   * Compile from the parser's current state. Zones and rules the parser later re-parses are not seen.
+   */
   public TzCompiler(IanaZonesAndRulesParser parser)
   {
-    this.parser = parser;
+    this(parser.snapshot());
+  }
+
+  public TzCompiler(TzDatabase database)
+  {
+    this.database = database;
   }
 
   public Map<String, TzTransitionList> compileAll(int minYear, int maxYear)
+  {
+    return compileAll(minYear, maxYear, TzGeneratorMetrics.DISABLED);
+  }
+
+  public Map<String, TzTransitionList> compileAll(int minYear, int maxYear, TzGeneratorMetrics metrics)
   {
     Map<String, TzTransitionList>   compiledZones = new HashMap<>();
 
-    for (String zoneId : parser.getZoneIds())
+    for (String zoneId : database.getZoneIds()) {
+      long  start = System.nanoTime();
+
       compiledZones.put(zoneId, compile(zoneId, minYear, maxYear));
+      metrics.recordZoneCompile(zoneId, System.nanoTime() - start);
+    }
 
     return compiledZones;
   }
 
   public TzTransitionList compile(String zoneId, int minYear, int maxYear)
   {
+    TzCompileEvent          event = new TzCompileEvent();
     TzTransitionList        transitions = new TzTransitionList(zoneId);
     ZoneProcessingContext   zpc = new ZoneProcessingContext();
-    IanaZone                zone = parser.getZone(zoneId);
+    List<IanaZoneRecord>    zone = database.getZone(zoneId);
+    int                     records = 0;
+
+    event.begin();
 
-    transitions.setAliasFor(parser.getAliasFor(zoneId));
+    transitions.setAliasFor(database.getAliasFor(zoneId));
 
     zpc.zoneId = zoneId;
     zpc.lastUtcOffset = 0;
@@ -65,6 +86,8 @@ public class TzCompiler
     for (IanaZoneRecord zoneRec : zone) {
       int   dstOffset = 0;
 
+      ++records;
+
       if (zoneRec.rules != null && zoneRec.rules.indexOf(':') >= 0)
         dstOffset = parseOffsetTime(zoneRec.rules, true);
 
@@ -99,16 +122,88 @@ public class TzCompiler
 
     transitions.removeDuplicateTransitions();
     transitions.trim(minYear, maxYear);
+    event.end();
+
+    if (event.shouldCommit()) {
+      Set<String>   ruleSets = new HashSet<>();
+
+      for (IanaZoneRecord zoneRec : zone.subList(0, records)) {
+        if (zoneRec.rules != null && zoneRec.rules.indexOf(':') < 0)
+          ruleSets.add(zoneRec.rules);
+      }
+
+      event.zoneId = zoneId;
+      event.zoneRecords = records;
+      event.ruleSets = ruleSets.size();
+      event.transitions = transitions.size();
+      event.commit();
+    }
 
     return transitions;
   }
 
+  /**
+   * Compile a zone without holding more than about 400 years of transitions past its last rule change, however
+   * wide the year range is. See TzStreamedTransitions.
+   */
+  public TzStreamedTransitions compileStreamed(String zoneId, int minYear, int maxYear)
+  {
+    int   cycleYear = findCycleStart(zoneId, minYear);
+
+    if (cycleYear > 0 && cycleYear + TzStreamedTransitions.CYCLE_YEARS + 1 <= min(maxYear, 9999)) {
+      TzTransitionList        transitions = compile(zoneId, minYear, cycleYear + TzStreamedTransitions.CYCLE_YEARS + 1);
+      TzStreamedTransitions   streamed = TzStreamedTransitions.fromCycle(transitions, cycleYear, maxYear);
+
+      if (streamed != null)
+        return streamed;
+    }
+
+    return new TzStreamedTransitions(compile(zoneId, minYear, maxYear));
+  }
+
+  /**
+   * @return The first year from which a zone's transitions repeat every 400 years, or -1 if they don't, because
+   *         the zone doesn't end with exactly one standard time rule and one DST rule continuing indefinitely.
+   */
+  private int findCycleStart(String zoneId, int minYear)
+  {
+    List<IanaZoneRecord>  zone = database.getZone(zoneId);
+    IanaZoneRecord        lastZoneRec = zone.get(zone.size() - 1);
+    int                   lastChangeYear = 1800;
+    int                   stdRules = 0;
+    int                   dstRules = 0;
+
+    if (lastZoneRec.rules == null || lastZoneRec.rules.indexOf(':') >= 0 || lastZoneRec.until < MAX_JS_SAFE_INTEGER)
+      return -1;
+
+    if (zone.size() > 1)
+      lastChangeYear = LocalDateTime.ofEpochSecond(zone.get(zone.size() - 2).until, 0, ZoneOffset.UTC).getYear() + 1;
+
+    for (TzRule rule : database.getRuleSet(lastZoneRec.rules)) {
+      if (rule.endYear != Integer.MAX_VALUE)
+        lastChangeYear = max(lastChangeYear, rule.endYear);
+      else {
+        lastChangeYear = max(lastChangeYear, rule.startYear);
+
+        if (rule.save == 0)
+          ++stdRules;
+        else
+          ++dstRules;
+      }
+    }
+
+    if (stdRules != 1 || dstRules != 1)
+      return -1;
+
+    return max(lastChangeYear + 2, minYear + 1);
+  }
+
   private void applyRules(String rulesName, TzTransitionList transitions, ZoneProcessingContext zpc, int minYear, int maxYear)
   {
-    TzRuleSet   ruleSet = parser.getRuleSet(rulesName);
-    long        minTime = zpc.lastUntil;
-    String      firstStdLetters = "?";
-    String      fallbackStdLetters = "?";
+    List<TzRule>  ruleSet = database.getRuleSet(rulesName);
+    long          minTime = zpc.lastUntil;
+    String        firstStdLetters = "?";
+    String        fallbackStdLetters = "?";
 
     ZoneOffset  zoneOffset = ZoneOffset.ofTotalSeconds(zpc.utcOffset);
     ZoneOffset  lastZoneOffset = ZoneOffset.ofTotalSeconds(zpc.lastUtcOffset);
@@ -129,38 +224,7 @@ public class TzCompiler
     for (TzRule rule : ruleSet) {
       if (rule.startYear <= min(highYear, rule.endYear)) {
         for (int year = max(rule.startYear, 1800); year <= min(highYear, rule.endYear) && year <= maxYear; ++year) {
-          int   ldtDate;
-          int   ldtMonth = rule.month;
-          int   ldtYear = year;
-
-          if (rule.dayOfWeek >= 0 && rule.dayOfMonth > 0) {
-            ldtDate = getDayOnOrAfter(year, ldtMonth, rule.dayOfWeek, rule.dayOfMonth);
-
-            if (ldtDate <= 0) {
-              int[]   ymd = getDateFromDayNumber(getDayNumber(ldtYear, ldtMonth, rule.dayOfMonth - ldtDate));
-
-              ldtYear = ymd[0];
-              ldtMonth = ymd[1];
-              ldtDate = ymd[2];
-            }
-          }
-          else if (rule.dayOfWeek >= 0 && rule.dayOfMonth < 0) {
-            ldtDate = getDayOnOrBefore(year, ldtMonth, rule.dayOfWeek, -rule.dayOfMonth);
-
-            if (ldtDate <= 0) {
-              int[]   ymd = getDateFromDayNumber(getDayNumber(ldtYear, ldtMonth, rule.dayOfMonth + ldtDate));
-
-              ldtYear = ymd[0];
-              ldtMonth = ymd[1];
-              ldtDate = ymd[2];
-            }
-          }
-          else if (rule.dayOfWeek >= 0)
-            ldtDate = getDateOfNthWeekdayOfMonth(year, ldtMonth, rule.dayOfWeek, LAST);
-          else
-            ldtDate = rule.dayOfMonth;
-
-          LocalDateTime   ldt = LocalDateTime.of(ldtYear, ldtMonth, ldtDate, min(rule.atHour, 23), rule.atMinute);
+          LocalDateTime   ldt = LocalDate.ofEpochDay(rule.getTransitionDayNumber(year)).atTime(min(rule.atHour, 23), rule.atMinute);
 
           if (rule.atHour == 24)
             ldt = ldt.plus(1, ChronoUnit.HOURS);
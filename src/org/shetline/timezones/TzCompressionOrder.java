@@ -0,0 +1,151 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.util.*;
+
+
+/**
+ * Rearranges compact output so that it compresses better, without changing what it decodes to. Zones with similar
+ * tables are placed next to each other, and the offset dictionary of each table is put into a canonical order,
+ * so that similar tables contain more identical runs of text within a compressor's window.
+ */
+public class TzCompressionOrder
+{
+  /**
+   * Sort all but the first entry of a compact table's offset dictionary, renumbering offset indices to match.
+   * The first entry is left in place because it supplies the name of the initial offset.
+   */
+  public static String sortOffsetDictionary(String table)
+  {
+    String[]  sections = table.split(";", -1);
+
+    if (sections.length < 3)
+      return table;
+
+    String[]  offsets = sections[1].split(" ");
+
+    if (offsets.length < 3)
+      return table;
+
+    String[]  sorted = offsets.clone();
+
+    Arrays.sort(sorted, 1, sorted.length);
+
+    Map<String, Integer>  newIndices = new HashMap<>();
+
+    for (int i = 0; i < sorted.length; ++i)
+      newIndices.put(sorted[i], i);
+
+    StringBuilder   indices = new StringBuilder(sections[2].length());
+
+    for (int i = 0; i < sections[2].length(); ++i) {
+      int   oldIndex = (int) TzUtil.fromBase60(sections[2].substring(i, i + 1));
+
+      indices.append(TzUtil.toBase60(newIndices.get(offsets[oldIndex])));
+    }
+
+    sections[1] = String.join(" ", sorted);
+    sections[2] = indices.toString();
+
+    return String.join(";", sections);
+  }
+
+  /**
+   * Order unique zones as a chain in which each zone is followed by the remaining zone whose table shares the most
+   * transition time deltas and offset dictionary entries with it, starting with the first zone in the list. Ties,
+   * including a remaining set of zones with nothing at all in common with the current zone, go to the zone which
+   * came first in the original order.
+   */
+  public static void orderZones(List<String> uniqueZones, Map<String, String> compactTablesByZone)
+  {
+    int                         count = uniqueZones.size();
+    List<String[]>              tokens = new ArrayList<>(count);
+    Map<String, List<Integer>>  zonesByToken = new HashMap<>();
+
+    for (int i = 0; i < count; ++i) {
+      String[]      sections = compactTablesByZone.get(uniqueZones.get(i)).split(";");
+      Set<String>   zoneTokens = new LinkedHashSet<>();
+
+      if (sections.length > 1)
+        zoneTokens.addAll(Arrays.asList(sections[1].split(" ")));
+
+      if (sections.length > 3)
+        zoneTokens.addAll(Arrays.asList(sections[3].split(" ")));
+
+      if (sections.length > 4)
+        zoneTokens.add(sections[4]);
+
+      tokens.add(zoneTokens.toArray(new String[0]));
+
+      for (String token : zoneTokens)
+        zonesByToken.computeIfAbsent(token, t -> new ArrayList<>()).add(i);
+    }
+
+    // Rather than compare the current zone with every remaining zone, count shared tokens only for the zones which
+    // appear in the current zone's token lists. Zones already placed are dropped from those lists as they're found.
+    List<String>  ordered = new ArrayList<>(count);
+    boolean[]     used = new boolean[count];
+    int[]         shared = new int[count];
+    int[]         candidates = new int[count];
+    int           firstUnused = 0;
+    int           current = 0;
+
+    for (int n = 0; n < count; ++n) {
+      used[current] = true;
+      ordered.add(uniqueZones.get(current));
+
+      int   candidateCount = 0;
+
+      for (String token : tokens.get(current)) {
+        List<Integer>   zones = zonesByToken.get(token);
+
+        zones.removeIf(i -> used[i]);
+
+        for (int i : zones) {
+          if (shared[i]++ == 0)
+            candidates[candidateCount++] = i;
+        }
+      }
+
+      while (firstUnused < count && used[firstUnused])
+        ++firstUnused;
+
+      int   best = firstUnused;
+      int   bestShared = 0;
+
+      for (int c = 0; c < candidateCount; ++c) {
+        int   i = candidates[c];
+
+        if (shared[i] > bestShared || (shared[i] == bestShared && i < best)) {
+          best = i;
+          bestShared = shared[i];
+        }
+
+        shared[i] = 0;
+      }
+
+      current = best;
+    }
+
+    uniqueZones.clear();
+    uniqueZones.addAll(ordered);
+  }
+}
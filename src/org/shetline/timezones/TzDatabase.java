@@ -0,0 +1,83 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.util.*;
+
+
+/**
+ * An immutable snapshot of a parsed tz database. Any number of threads may compile zones from the same snapshot
+ * concurrently, and the snapshot is unaffected by anything later parsed or re-parsed by the parser it came from.
+ * <p>
+ * The zone record and rule lists are unmodifiable copies, but the IanaZoneRecord and TzRule objects in them are
+ * shared with the parser and with other snapshots, and must not be modified.
+ */
+public final class TzDatabase
+{
+  private final String                              version;
+  private final Map<String, List<IanaZoneRecord>>   zones = new HashMap<>();
+  private final Map<String, String>                 aliases;
+  private final Map<String, List<TzRule>>           ruleSets = new HashMap<>();
+  private final List<String>                        zoneIds;
+
+  TzDatabase(String version, Map<String, IanaZone> zones, Map<String, String> aliases, Map<String, TzRuleSet> ruleSets)
+  {
+    this.version = version;
+    zones.forEach((zoneId, zone) -> this.zones.put(zoneId, Collections.unmodifiableList(new ArrayList<>(zone))));
+    this.aliases = Collections.unmodifiableMap(new HashMap<>(aliases));
+    ruleSets.forEach((name, ruleSet) -> this.ruleSets.put(name, Collections.unmodifiableList(new ArrayList<>(ruleSet))));
+    zoneIds = Collections.unmodifiableList(IanaZonesAndRulesParser.sortZoneIds(zones.keySet(), aliases.keySet()));
+  }
+
+  public String getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * @return All zone IDs and aliases, sorted in the same order as IanaZonesAndRulesParser.getZoneIds().
+   */
+  public List<String> getZoneIds()
+  {
+    return zoneIds;
+  }
+
+  public String getAliasFor(String zoneId)
+  {
+    return aliases.get(zoneId);
+  }
+
+  /**
+   * @return The zone's records, or those of the zone an alias refers to, as an unmodifiable list. The records
+   *         themselves must not be modified.
+   */
+  public List<IanaZoneRecord> getZone(String zoneId)
+  {
+    return zones.get(aliases.getOrDefault(zoneId, zoneId));
+  }
+
+  /**
+   * @return The named rule set as an unmodifiable list. The rules themselves must not be modified.
+   */
+  public List<TzRule> getRuleSet(String rulesName)
+  {
+    return ruleSets.get(rulesName);
+  }
+}
@@ -0,0 +1,137 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+
+/**
+ * Compiles two versions of the tz database side by side and finds, for each zone, the first moment in time
+ * where the two versions disagree.
+ */
+public class TzDatabaseDiff
+{
+  private String                  oldVersion;
+  private String                  newVersion;
+  private List<TzTransitionDiff>  differences = new ArrayList<>();
+
+  private TzDatabaseDiff()
+  {
+  }
+
+  public static TzDatabaseDiff compare(File oldArchive, File newArchive, int minYear, int maxYear, boolean roundToMinutes,
+                                       boolean fixCalendarRollbacks, boolean includeSystemV)
+      throws IOException, IanaParserException
+  {
+    TzDatabaseDiff                    diff = new TzDatabaseDiff();
+    ExecutorService                   executor = Executors.newFixedThreadPool(2);
+    Future<Map<String, TzTransitionList>>
+                                      oldFuture = executor.submit(() ->
+      compileArchive(oldArchive, minYear, maxYear, roundToMinutes, fixCalendarRollbacks, includeSystemV, v -> diff.oldVersion = v));
+    Future<Map<String, TzTransitionList>>
+                                      newFuture = executor.submit(() ->
+      compileArchive(newArchive, minYear, maxYear, roundToMinutes, fixCalendarRollbacks, includeSystemV, v -> diff.newVersion = v));
+    Map<String, TzTransitionList>     oldZones;
+    Map<String, TzTransitionList>     newZones;
+
+    try {
+      oldZones = oldFuture.get();
+      newZones = newFuture.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while compiling time zones");
+    }
+    catch (ExecutionException e) {
+      Throwable   cause = e.getCause();
+
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      else if (cause instanceof IanaParserException)
+        throw (IanaParserException) cause;
+      else if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      else
+        throw new RuntimeException(cause);
+    }
+    finally {
+      executor.shutdown();
+    }
+
+    SortedSet<String>   zoneIds = new TreeSet<>(oldZones.keySet());
+
+    zoneIds.addAll(newZones.keySet());
+
+    for (String zoneId : zoneIds) {
+      TzTransitionDiff  difference = TzTransitionDiff.findFirstDifference(zoneId, oldZones.get(zoneId), newZones.get(zoneId));
+
+      if (difference != null)
+        diff.differences.add(difference);
+    }
+
+    return diff;
+  }
+
+  private static Map<String, TzTransitionList> compileArchive(File archive, int minYear, int maxYear, boolean roundToMinutes,
+                                                              boolean fixCalendarRollbacks, boolean includeSystemV,
+                                                              Consumer<String> versionReceiver)
+      throws IOException, IanaParserException
+  {
+    IanaZonesAndRulesParser   parser = new IanaZonesAndRulesParser(roundToMinutes, false);
+
+    versionReceiver.accept(parser.parseArchive(archive, includeSystemV));
+
+    Map<String, TzTransitionList>   compiledZones = new TzCompiler(parser).compileAll(minYear, maxYear);
+
+    if (fixCalendarRollbacks) {
+      for (TzTransitionList transitions : compiledZones.values())
+        transitions.findCalendarRollbacks(true, false);
+    }
+
+    return compiledZones;
+  }
+
+  public String getOldVersion()
+  {
+    return oldVersion;
+  }
+
+  public String getNewVersion()
+  {
+    return newVersion;
+  }
+
+  public List<TzTransitionDiff> getDifferences()
+  {
+    return differences;
+  }
+
+  public void report(PrintStream out)
+  {
+    out.println("tz database version " + oldVersion + " vs. " + newVersion + ": " + differences.size() +
+                " time zone" + (differences.size() == 1 ? "" : "s") + " changed");
+
+    for (TzTransitionDiff difference : differences)
+      out.println("  " + difference);
+  }
+}
@@ -0,0 +1,256 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+
+
+/**
+ * Wall time, CPU time and allocated bytes for each phase of a generator run, plus a histogram of per-zone
+ * compile times. A phase may be entered any number of times, its measurements accumulating. CPU time and
+ * allocation are those of the thread entering the phase, so work it hands off to other threads is not counted.
+ */
+public class TzGeneratorMetrics
+{
+  public static final TzGeneratorMetrics  DISABLED = new TzGeneratorMetrics(false);
+
+  private static final int                SLOWEST_ZONE_COUNT = 5;
+
+  /**
+   * A phase being timed, from start() until close(), which should always be called from a finally block.
+   */
+  public class Phase
+  {
+    private final PhaseTotals   totals;
+    private final long          startWall;
+    private final long          startCpu;
+    private final long          startAllocated;
+
+    private Phase(PhaseTotals totals)
+    {
+      this.totals = totals;
+
+      if (totals != null) {
+        startWall = System.nanoTime();
+        startCpu = cpuTime();
+        startAllocated = allocatedBytes();
+      }
+      else
+        startWall = startCpu = startAllocated = 0;
+    }
+
+    public void close()
+    {
+      if (totals == null)
+        return;
+
+      totals.wallNanos += System.nanoTime() - startWall;
+      totals.cpuNanos += cpuTime() - startCpu;
+      totals.allocatedBytes += allocatedBytes() - startAllocated;
+      ++totals.count;
+    }
+  }
+
+  private static class PhaseTotals
+  {
+    long  wallNanos;
+    long  cpuNanos;
+    long  allocatedBytes;
+    int   count;
+  }
+
+  private final boolean                     enabled;
+  private final ThreadMXBean                threadBean;
+  private final com.sun.management.ThreadMXBean
+                                            allocationBean;
+  private final Map<String, PhaseTotals>    phases = new LinkedHashMap<>();
+  private final Map<String, Long>           zoneCompileNanos = new HashMap<>();
+  private final Phase                       disabledPhase = new Phase(null);
+
+  public TzGeneratorMetrics(boolean enabled)
+  {
+    this.enabled = enabled;
+    threadBean = (enabled ? ManagementFactory.getThreadMXBean() : null);
+
+    if (threadBean instanceof com.sun.management.ThreadMXBean &&
+        ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+      allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+      allocationBean.setThreadAllocatedMemoryEnabled(true);
+    }
+    else
+      allocationBean = null;
+
+    if (threadBean != null && threadBean.isCurrentThreadCpuTimeSupported())
+      threadBean.setThreadCpuTimeEnabled(true);
+  }
+
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /**
+   * Start timing a phase. When metrics are disabled, the same Phase, which measures nothing, is always returned.
+   */
+  public Phase start(String name)
+  {
+    return (enabled ? new Phase(phases.computeIfAbsent(name, k -> new PhaseTotals())) : disabledPhase);
+  }
+
+  public void recordZoneCompile(String zoneId, long nanos)
+  {
+    if (enabled)
+      zoneCompileNanos.put(zoneId, nanos);
+  }
+
+  private long cpuTime()
+  {
+    return (threadBean != null && threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : 0);
+  }
+
+  private long allocatedBytes()
+  {
+    return (allocationBean != null ? allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0);
+  }
+
+  private long[] sortedCompileTimes()
+  {
+    return zoneCompileNanos.values().stream().mapToLong(Long::longValue).sorted().toArray();
+  }
+
+  private static long percentile(long[] sorted, double p)
+  {
+    return (sorted.length == 0 ? 0 : sorted[(int) Math.min(Math.ceil(p * sorted.length) - 1, sorted.length - 1)]);
+  }
+
+  private List<String> slowestZones()
+  {
+    List<String>  zoneIds = new ArrayList<>(zoneCompileNanos.keySet());
+
+    zoneIds.sort((a, b) -> Long.compare(zoneCompileNanos.get(b), zoneCompileNanos.get(a)));
+
+    return zoneIds.subList(0, Math.min(SLOWEST_ZONE_COUNT, zoneIds.size()));
+  }
+
+  /**
+   * Counts of zone compile times in power-of-two microsecond buckets. Index i counts times under 2^i microseconds
+   * (and at least 2^(i-1) for i > 0).
+   */
+  private int[] histogram(long[] sorted)
+  {
+    int   buckets = 1;
+
+    if (sorted.length > 0)
+      buckets = 65 - Long.numberOfLeadingZeros(sorted[sorted.length - 1] / 1000);
+
+    int[] counts = new int[buckets];
+
+    for (long nanos : sorted)
+      ++counts[64 - Long.numberOfLeadingZeros(nanos / 1000)];
+
+    return counts;
+  }
+
+  public void report(PrintStream out)
+  {
+    if (!enabled)
+      return;
+
+    out.println();
+    out.println(String.format("%-12s %10s %10s %12s", "Phase", "wall ms", "CPU ms", "allocated MB"));
+
+    for (Map.Entry<String, PhaseTotals> entry : phases.entrySet()) {
+      PhaseTotals   totals = entry.getValue();
+
+      out.println(String.format("%-12s %10.1f %10.1f %12.2f", entry.getKey(), totals.wallNanos / 1E6, totals.cpuNanos / 1E6,
+                                totals.allocatedBytes / 1048576.0));
+    }
+
+    long[]  times = sortedCompileTimes();
+
+    if (times.length == 0)
+      return;
+
+    out.println();
+    out.println(String.format("Zone compile times (%d zones): median %.1f us, p90 %.1f us, p99 %.1f us, max %.1f us",
+                              times.length, percentile(times, 0.5) / 1E3, percentile(times, 0.9) / 1E3,
+                              percentile(times, 0.99) / 1E3, times[times.length - 1] / 1E3));
+
+    int[] counts = histogram(times);
+    int   maxCount = Arrays.stream(counts).max().orElse(1);
+
+    for (int i = 0; i < counts.length; ++i) {
+      if (counts[i] > 0)
+        out.println(String.format("  < %7d us %5d %s", 1L << i, counts[i], "#".repeat((counts[i] * 40 + maxCount - 1) / maxCount)));
+    }
+
+    out.print("  slowest:");
+
+    for (String zoneId : slowestZones())
+      out.print(String.format(" %s (%.1f us)", zoneId, zoneCompileNanos.get(zoneId) / 1E3));
+
+    out.println();
+  }
+
+  public void writeJson(Writer out) throws IOException
+  {
+    StringBuilder   sb = new StringBuilder("{\n  \"phases\": [");
+    boolean         first = true;
+
+    for (Map.Entry<String, PhaseTotals> entry : phases.entrySet()) {
+      PhaseTotals   totals = entry.getValue();
+
+      sb.append(first ? "\n" : ",\n");
+      sb.append("    {\"name\": \"").append(entry.getKey()).append("\", \"count\": ").append(totals.count)
+        .append(", \"wallNanos\": ").append(totals.wallNanos).append(", \"cpuNanos\": ").append(totals.cpuNanos)
+        .append(", \"allocatedBytes\": ").append(totals.allocatedBytes).append('}');
+      first = false;
+    }
+
+    long[]  times = sortedCompileTimes();
+    int[]   counts = histogram(times);
+
+    sb.append("\n  ],\n  \"zoneCompile\": {\"count\": ").append(times.length)
+      .append(", \"totalNanos\": ").append(Arrays.stream(times).sum())
+      .append(", \"medianNanos\": ").append(percentile(times, 0.5))
+      .append(", \"p90Nanos\": ").append(percentile(times, 0.9))
+      .append(", \"p99Nanos\": ").append(percentile(times, 0.99))
+      .append(", \"maxNanos\": ").append(times.length > 0 ? times[times.length - 1] : 0)
+      .append(",\n    \"histogram\": [");
+
+    for (int i = 0; i < counts.length; ++i)
+      sb.append(i > 0 ? ", " : "").append("{\"underMicros\": ").append(1L << i).append(", \"count\": ").append(counts[i]).append('}');
+
+    sb.append("],\n    \"slowest\": [");
+    first = true;
+
+    for (String zoneId : slowestZones()) {
+      sb.append(first ? "" : ", ").append("{\"zone\": \"").append(zoneId).append("\", \"nanos\": ")
+        .append(zoneCompileNanos.get(zoneId)).append('}');
+      first = false;
+    }
+
+    sb.append("]}\n}\n");
+    out.write(sb.toString());
+  }
+}
@@ -0,0 +1,295 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.shetline.timezones;
+
+import java.time.*;
+import java.time.zone.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.shetline.timezones.TzUtil.*;
+
+
+/**
+ * Exhaustively compares compiled UTC offsets with java.time's ZoneRules.getOffset() over a whole year range.
+ * Offsets are checked at a fixed step, and also at every transition instant, compiled or from java.time. As
+ * both offsets are constant between transitions, the first mismatch reported for a zone is the earliest instant,
+ * to the second, at which the two disagree. When comparing zones rounded to minutes, java.time offsets and
+ * transition times are rounded to the nearest minute, as the compiler rounds them.
+ * <p>
+ * Work is split across threads by zone and by time range. Checking of a zone stops at its first mismatch.
+ */
+public class TzJavaTimeVerifier
+{
+  private static final long   CHUNK_SECONDS = 20L * 365 * 86400;
+
+  private final int       minYear;
+  private final int       maxYear;
+  private final long      stepSeconds;
+  private final boolean   roundToMinutes;
+
+  public static class Mismatch
+  {
+    public final String   zoneId;
+    public final long     time;
+    public final int      compiledOffset;
+    public final long     compiledSince;
+    public final int      javaOffset;
+    public final long     javaSince;
+
+    private Mismatch(String zoneId, long time, int compiledOffset, long compiledSince, int javaOffset, long javaSince)
+    {
+      this.zoneId = zoneId;
+      this.time = time;
+      this.compiledOffset = compiledOffset;
+      this.compiledSince = compiledSince;
+      this.javaOffset = javaOffset;
+      this.javaSince = javaSince;
+    }
+
+    @Override
+    public String toString()
+    {
+      return zoneId + " at " + Instant.ofEpochSecond(time) + ": compiled " + formatOffset(compiledOffset) +
+             " (since " + formatTime(compiledSince) + "), java.time " + formatOffset(javaOffset) +
+             " (since " + formatTime(javaSince) + ")";
+    }
+
+    private static String formatOffset(int offset)
+    {
+      return "UTC" + (offset == 0 ? "" : ZoneOffset.ofTotalSeconds(offset).getId());
+    }
+
+    private static String formatTime(long time)
+    {
+      return (time == Long.MIN_VALUE ? "start" : Instant.ofEpochSecond(time).toString());
+    }
+  }
+
+  public static class Result
+  {
+    public final List<Mismatch>   mismatches;
+    public final List<String>     skipped;
+    public final int              verified;
+    public final long             checks;
+
+    private Result(List<Mismatch> mismatches, List<String> skipped, int verified, long checks)
+    {
+      this.mismatches = mismatches;
+      this.skipped = skipped;
+      this.verified = verified;
+      this.checks = checks;
+    }
+  }
+
+  private static class ZoneCheck
+  {
+    final String                      zoneId;
+    final TzTransitionBlock           block;
+    final ZoneRules                   rules;
+    final AtomicReference<Mismatch>   first = new AtomicReference<>();
+
+    ZoneCheck(String zoneId, TzTransitionBlock block, ZoneRules rules)
+    {
+      this.zoneId = zoneId;
+      this.block = block;
+      this.rules = rules;
+    }
+
+    boolean isDoneBy(long time)
+    {
+      Mismatch  mismatch = first.get();
+
+      return mismatch != null && mismatch.time <= time;
+    }
+
+    void record(Mismatch mismatch)
+    {
+      first.accumulateAndGet(mismatch, (a, b) -> (a == null || b.time < a.time ? b : a));
+    }
+  }
+
+  /**
+   * @param minYear First year (UTC) to check.
+   * @param maxYear Last year (UTC) to check.
+   * @param stepSeconds Interval between regular checks.
+   * @param roundToMinutes Whether the compiled zones were rounded to minutes.
+   */
+  public TzJavaTimeVerifier(int minYear, int maxYear, long stepSeconds, boolean roundToMinutes)
+  {
+    if (stepSeconds < 1)
+      throw new IllegalArgumentException("Invalid step: " + stepSeconds);
+
+    this.minYear = minYear;
+    this.maxYear = maxYear;
+    this.stepSeconds = stepSeconds;
+    this.roundToMinutes = roundToMinutes;
+  }
+
+  /**
+   * @param zones Compiled zones, by zone ID. Zones unknown to java.time are skipped.
+   * @param parallelism Number of threads to use.
+   */
+  public Result verify(Map<String, TzTransitionList> zones, int parallelism) throws InterruptedException
+  {
+    long                  start = LocalDate.of(minYear, 1, 1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+    long                  end = LocalDate.of(maxYear + 1, 1, 1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+    long                  chunk = Math.max(CHUNK_SECONDS / stepSeconds, 1) * stepSeconds;
+    List<ZoneCheck>       checks = new ArrayList<>();
+    List<String>          skipped = new ArrayList<>();
+    List<Callable<Long>>  tasks = new ArrayList<>();
+
+    for (Map.Entry<String, TzTransitionList> entry : new TreeMap<>(zones).entrySet()) {
+      ZoneRules   rules;
+
+      try {
+        rules = ZoneRulesProvider.getRules(entry.getKey(), false);
+      }
+      catch (ZoneRulesException e) {
+        skipped.add(entry.getKey());
+        continue;
+      }
+
+      ZoneCheck   check = new ZoneCheck(entry.getKey(), TzTransitionBlock.fromTransitionList(entry.getValue()), rules);
+
+      checks.add(check);
+
+      for (long from = start; from < end; from += chunk) {
+        long  chunkStart = from;
+        long  chunkEnd = Math.min(from + chunk, end);
+
+        tasks.add(() -> verifyRange(check, chunkStart, chunkEnd));
+      }
+    }
+
+    ExecutorService   executor = Executors.newFixedThreadPool(Math.max(parallelism, 1));
+    long              total = 0;
+
+    try {
+      for (Future<Long> future : executor.invokeAll(tasks))
+        total += future.get();
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+
+      throw new IllegalStateException(e.getCause());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    List<Mismatch>  mismatches = new ArrayList<>();
+
+    for (ZoneCheck check : checks) {
+      if (check.first.get() != null)
+        mismatches.add(check.first.get());
+    }
+
+    return new Result(mismatches, skipped, checks.size(), total);
+  }
+
+  /**
+   * Check regular steps and all transitions in [from, to), in time order, stopping at the first mismatch.
+   * @return Number of instants checked.
+   */
+  private long verifyRange(ZoneCheck check, long from, long to)
+  {
+    TzTransitionBlock     block = check.block;
+    int                   index = block.findTransitionIndex(from);
+    long                  nextStep = from;
+    long                  nextCompiled = (index + 1 < block.size() ? block.getTime(index + 1) : Long.MAX_VALUE);
+    ZoneOffsetTransition  javaTransition = check.rules.nextTransition(Instant.ofEpochSecond(from - 31));
+    long                  nextJava = javaTime(javaTransition);
+    long                  count = 0;
+
+    while (nextJava < from) {
+      javaTransition = check.rules.nextTransition(javaTransition.getInstant());
+      nextJava = javaTime(javaTransition);
+    }
+
+    while (true) {
+      long  time = Math.min(nextStep, Math.min(nextCompiled, nextJava));
+
+      if (time >= to || check.isDoneBy(time))
+        break;
+
+      ++count;
+
+      int   i = block.findTransitionIndex(time);
+      int   javaOffset = javaOffset(check.rules, time);
+
+      if (block.getUtcOffset(i) != javaOffset) {
+        ZoneOffsetTransition  previous = check.rules.previousTransition(Instant.ofEpochSecond(time + 1));
+
+        check.record(new Mismatch(check.zoneId, time, block.getUtcOffset(i), (i == 0 ? Long.MIN_VALUE : block.getTime(i)),
+                                  javaOffset, (previous == null ? Long.MIN_VALUE : previous.toEpochSecond())));
+        break;
+      }
+
+      if (time == nextStep)
+        nextStep += stepSeconds;
+
+      while (nextCompiled <= time) {
+        ++index;
+        nextCompiled = (index + 1 < block.size() ? block.getTime(index + 1) : Long.MAX_VALUE);
+      }
+
+      if (time == nextJava) {
+        javaTransition = check.rules.nextTransition(javaTransition.getInstant());
+        nextJava = javaTime(javaTransition);
+      }
+    }
+
+    return count;
+  }
+
+  private long javaTime(ZoneOffsetTransition transition)
+  {
+    if (transition == null)
+      return Long.MAX_VALUE;
+
+    long  time = transition.toEpochSecond();
+
+    return (roundToMinutes ? div(time + 30, 60) * 60 : time);
+  }
+
+  private int javaOffset(ZoneRules rules, long time)
+  {
+    int   offset = rules.getOffset(Instant.ofEpochSecond(time)).getTotalSeconds();
+
+    if (!roundToMinutes)
+      return offset;
+    else if (offset == rules.getOffset(Instant.ofEpochSecond(time - 30)).getTotalSeconds() &&
+             offset == rules.getOffset(Instant.ofEpochSecond(time + 30)).getTotalSeconds())
+      return div(offset + 30, 60) * 60;
+
+    // A transition up to half a minute after the given time may have been rounded back to it, and one up to half
+    // a minute before may have been rounded forward past it.
+    ZoneOffsetTransition  transition = rules.previousTransition(Instant.ofEpochSecond(time + 31));
+
+    if (transition != null && javaTime(transition) > time)
+      offset = transition.getOffsetBefore().getTotalSeconds();
+    else
+      offset = rules.getOffset(Instant.ofEpochSecond(time + 30)).getTotalSeconds();
+
+    return div(offset + 30, 60) * 60;
+  }
+}
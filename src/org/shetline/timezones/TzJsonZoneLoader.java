@@ -0,0 +1,422 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.shetline.timezones.TzUtil.MIN_JS_SAFE_INTEGER;
+
+
+/**
+ * Loads JSON time zone data produced by this tool (the -J option) for use by JVM services. Loading only scans the
+ * JSON for the byte range of each zone's value. A zone is decoded into a TzTransitionBlock, directly from bytes and
+ * using integer arithmetic, the first time it's asked for, and decoded zones are held in a bounded cache. Aliases
+ * resolve to the same block as the zone they refer to.
+ * <p>
+ * Transitions generated by a zone's tail rules are added through a configurable year.
+ */
+public class TzJsonZoneLoader
+{
+  public static final int   DEFAULT_CACHE_SIZE = 128;
+  public static final int   DEFAULT_THROUGH_YEAR = 2100;
+
+  private static final int  TAIL_RULE_GAP = 86400 * 2;
+
+  private final byte[]                                      data;
+  private final Map<String, Integer>                        entries = new HashMap<>();
+  private final int[]                                       valueStarts;
+  private final int[]                                       valueEnds;
+  private final int                                         throughYear;
+  private final int                                         cacheSize;
+  private final ConcurrentMap<String, TzTransitionBlock>    cache = new ConcurrentHashMap<>();
+  private final Queue<String>                               cacheOrder = new ConcurrentLinkedQueue<>();
+
+  private TzJsonZoneLoader(byte[] data, int throughYear, int cacheSize) throws IOException
+  {
+    this.data = data;
+    this.throughYear = throughYear;
+    this.cacheSize = cacheSize;
+
+    List<int[]>   ranges = new ArrayList<>();
+    int           pos = skipSpace(0);
+
+    if (pos >= data.length || data[pos] != '{')
+      throw formatError(pos);
+
+    pos = skipSpace(pos + 1);
+
+    while (pos < data.length && data[pos] != '}') {
+      int   keyEnd = findStringEnd(pos);
+      int   valueStart = skipSpace(skipSpace(keyEnd + 1) + 1);
+
+      if (data[skipSpace(keyEnd + 1)] != ':' || valueStart >= data.length || data[valueStart] != '"')
+        throw formatError(keyEnd + 1);
+
+      int   valueEnd = findStringEnd(valueStart);
+
+      entries.put(new String(data, pos + 1, keyEnd - pos - 1, StandardCharsets.UTF_8), ranges.size());
+      ranges.add(new int[] {valueStart + 1, valueEnd});
+      pos = skipSpace(valueEnd + 1);
+
+      if (pos < data.length && data[pos] == ',')
+        pos = skipSpace(pos + 1);
+      else if (pos >= data.length || data[pos] != '}')
+        throw formatError(pos);
+    }
+
+    if (pos >= data.length)
+      throw formatError(pos);
+
+    valueStarts = new int[ranges.size()];
+    valueEnds = new int[ranges.size()];
+
+    for (int i = 0; i < ranges.size(); ++i) {
+      valueStarts[i] = ranges.get(i)[0];
+      valueEnds[i] = ranges.get(i)[1];
+    }
+  }
+
+  public static TzJsonZoneLoader load(Path path) throws IOException
+  {
+    return load(Files.readAllBytes(path), DEFAULT_THROUGH_YEAR, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * @param data JSON time zone data.
+   * @param throughYear Last year (UTC) for which to generate transitions from tail rules.
+   * @param cacheSize Maximum number of decoded zones to keep.
+   */
+  public static TzJsonZoneLoader load(byte[] data, int throughYear, int cacheSize) throws IOException
+  {
+    return new TzJsonZoneLoader(data, throughYear, Math.max(cacheSize, 1));
+  }
+
+  private int skipSpace(int pos)
+  {
+    while (pos < data.length && (data[pos] == ' ' || data[pos] == '\n' || data[pos] == '\r' || data[pos] == '\t'))
+      ++pos;
+
+    return pos;
+  }
+
+  private int findStringEnd(int pos) throws IOException
+  {
+    if (pos >= data.length || data[pos] != '"')
+      throw formatError(pos);
+
+    while (++pos < data.length && data[pos] != '"') {
+      if (data[pos] == '\\')
+        ++pos;
+    }
+
+    if (pos >= data.length)
+      throw formatError(pos);
+
+    return pos;
+  }
+
+  private static IOException formatError(int pos)
+  {
+    return new IOException("Invalid time zone JSON at byte " + pos);
+  }
+
+  public Set<String> getZoneIds()
+  {
+    return Collections.unmodifiableSet(entries.keySet());
+  }
+
+  /**
+   * @return The ID of the zone whose table the given zone uses, or null if the zone is unknown.
+   */
+  public String getCanonicalId(String zoneId)
+  {
+    // Follow links, with a limit in case of (invalid) circular references.
+    for (int i = 0; i < 8; ++i) {
+      Integer   index = entries.get(zoneId);
+
+      if (index == null)
+        return null;
+
+      int   start = valueStarts[index];
+      int   end = valueEnds[index];
+
+      if (start < end && (data[start] == '+' || data[start] == '-'))
+        return zoneId;
+
+      for (int j = end - 1; j >= start; --j) {
+        if (data[j] == ',' || data[j] == '!') {
+          start = j + 1;
+          break;
+        }
+      }
+
+      zoneId = new String(data, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    return null;
+  }
+
+  /**
+   * @return Transitions for the given zone or alias, or null if the zone is unknown.
+   */
+  public TzTransitionBlock getZone(String zoneId)
+  {
+    TzTransitionBlock   block = cache.get(zoneId);
+
+    if (block != null)
+      return block;
+
+    String  canonicalId = getCanonicalId(zoneId);
+
+    if (canonicalId == null)
+      return null;
+    else if (!canonicalId.equals(zoneId))
+      return getZone(canonicalId);
+
+    int   index = entries.get(zoneId);
+
+    block = decode(valueStarts[index], valueEnds[index]);
+
+    TzTransitionBlock   existing = cache.putIfAbsent(zoneId, block);
+
+    if (existing != null)
+      return existing;
+
+    cacheOrder.add(zoneId);
+
+    while (cache.size() > cacheSize) {
+      String  oldest = cacheOrder.poll();
+
+      if (oldest == null)
+        break;
+
+      cache.remove(oldest);
+    }
+
+    return block;
+  }
+
+  public int getCachedZoneCount()
+  {
+    return cache.size();
+  }
+
+  private class Reader
+  {
+    private int         pos;
+    private final int   end;
+
+    private Reader(int start, int end)
+    {
+      pos = start;
+      this.end = end;
+    }
+
+    private boolean atSectionEnd()
+    {
+      return pos >= end || data[pos] == ';';
+    }
+
+    private boolean nextSection()
+    {
+      while (pos < end && data[pos] != ';')
+        ++pos;
+
+      return ++pos <= end;
+    }
+
+    private void skip(char c)
+    {
+      if (pos < end && data[pos] == c)
+        ++pos;
+    }
+
+    private String token()
+    {
+      int   start = pos;
+
+      while (pos < end && data[pos] != ' ' && data[pos] != ';' && data[pos] != '/' && data[pos] != ',')
+        ++pos;
+
+      return new String(data, start, pos - start, StandardCharsets.UTF_8);
+    }
+
+    private int digit()
+    {
+      int   c = data[pos++];
+
+      return (c > 96 ? c - 87 : c > 64 ? c - 29 : c - 48);
+    }
+
+    /**
+     * Read a base-60 number of minutes, with an optional single fractional digit for seconds.
+     * @return Value in seconds.
+     */
+    private long minutes()
+    {
+      long      value = 0;
+      boolean   negative = (pos < end && data[pos] == '-');
+
+      if (negative || (pos < end && data[pos] == '+'))
+        ++pos;
+
+      while (pos < end && data[pos] != ' ' && data[pos] != ';' && data[pos] != '/' && data[pos] != '.')
+        value = value * 60 + digit();
+
+      value *= 60;
+
+      if (pos < end && data[pos] == '.') {
+        ++pos;
+        value += digit();
+
+        while (pos < end && data[pos] != ' ' && data[pos] != ';' && data[pos] != '/')
+          ++pos;
+      }
+
+      return (negative ? -value : value);
+    }
+  }
+
+  private TzTransitionBlock decode(int start, int end)
+  {
+    Reader  in = new Reader(start, end);
+    int     baseOffset = TzUtil.parseOffsetNotation(in.token());
+
+    in.skip(' ');
+
+    int     stdOffset = TzUtil.parseOffsetNotation(in.token());
+
+    in.skip(' ');
+
+    int     dstOffset = Integer.parseInt(in.token()) * 60;
+
+    if (!in.nextSection() || in.atSectionEnd())
+      return new TzTransitionBlock(new long[] {MIN_JS_SAFE_INTEGER}, new int[] {baseOffset}, new int[1], new String[1]);
+
+    List<String>  names = new ArrayList<>();
+    int[]         utcOffsets = new int[60];
+    int[]         dstOffsets = new int[60];
+
+    while (!in.atSectionEnd()) {
+      int   i = names.size();
+
+      utcOffsets[i] = (int) in.minutes();
+      in.skip('/');
+      dstOffsets[i] = (int) in.minutes();
+
+      if (in.pos < in.end && data[in.pos] == '/') {
+        ++in.pos;
+        names.add(in.token());
+      }
+      else
+        names.add(null);
+
+      in.skip(' ');
+    }
+
+    in.nextSection();
+
+    int   indexStart = in.pos;
+
+    in.nextSection();
+
+    int   count = Math.max(in.pos - indexStart - 1, 0);
+    int   capacity = count + 1;
+
+    long[]    times = new long[capacity];
+    int[]     utc = new int[capacity];
+    int[]     dst = new int[capacity];
+    String[]  tNames = new String[capacity];
+    long      time = 0;
+    String    stdName = null;
+    String    dstName = null;
+
+    times[0] = MIN_JS_SAFE_INTEGER;
+    utc[0] = baseOffset;
+    tNames[0] = names.get(0);
+
+    for (int i = 1; i <= count; ++i) {
+      int   saved = in.pos;
+
+      in.pos = indexStart + i - 1;
+
+      int   offsetIndex = in.digit();
+
+      in.pos = saved;
+      time += in.minutes();
+      in.skip(' ');
+      times[i] = time;
+      utc[i] = utcOffsets[offsetIndex];
+      dst[i] = dstOffsets[offsetIndex];
+      tNames[i] = names.get(offsetIndex);
+
+      if (dst[i] != 0)
+        dstName = tNames[i];
+      else
+        stdName = tNames[i];
+    }
+
+    if (count == 0 || !in.nextSection() || in.atSectionEnd())
+      return new TzTransitionBlock(times, utc, dst, tNames);
+
+    int   ruleStart = in.pos;
+
+    in.nextSection();
+
+    String[]  rules = new String(data, ruleStart, in.pos - 1 - ruleStart, StandardCharsets.UTF_8).split(",");
+    TzRule    stdRule = TzRule.parseCompactTailRule(rules[0]);
+    TzRule    dstRule = TzRule.parseCompactTailRule(rules[1]);
+    long      lastTime = time;
+    int       size = count + 1;
+    int       year = LocalDateTime.ofEpochSecond(lastTime, 0, ZoneOffset.UTC).getYear() - 1;
+
+    capacity = size + Math.max(throughYear - year + 1, 0) * 2;
+    times = Arrays.copyOf(times, capacity);
+    utc = Arrays.copyOf(utc, capacity);
+    dst = Arrays.copyOf(dst, capacity);
+    tNames = Arrays.copyOf(tNames, capacity);
+
+    for (; year <= throughYear; ++year) {
+      long  stdTime = stdRule.getTransitionTime(year, stdOffset, dstOffset);
+      long  dstTime = dstRule.getTransitionTime(year, stdOffset, 0);
+
+      for (int half = 0; half < 2; ++half) {
+        boolean   useDstRule = (half == 0 ? dstTime < stdTime : dstTime > stdTime);
+        TzRule    rule = (useDstRule ? dstRule : stdRule);
+        long      t = (useDstRule ? dstTime : stdTime);
+
+        if (t > lastTime + TAIL_RULE_GAP && year >= rule.startYear) {
+          times[size] = t;
+          utc[size] = stdOffset + rule.save;
+          dst[size] = rule.save;
+          tNames[size++] = (rule.save != 0 ? dstName : stdName);
+        }
+      }
+    }
+
+    return new TzTransitionBlock(Arrays.copyOf(times, size), Arrays.copyOf(utc, size), Arrays.copyOf(dst, size),
+                                 Arrays.copyOf(tNames, size));
+  }
+}
@@ -0,0 +1,202 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.util.*;
+
+import static org.shetline.timezones.TzPopulationAndCountry.getPopulation;
+
+
+/**
+ * A precomputed index for answering the question "which time zones have UTC offset X at time T?", optionally
+ * restricted to zones which are, or are not, observing DST at that time. Matching zones are returned in order of
+ * descending population.
+ * <p>
+ * For each distinct UTC offset, every zone which ever uses that offset has a sorted list of the intervals during
+ * which it does, so a query is one binary search for the offset, then one per zone using that offset. Memory
+ * use is proportional to the total number of intervals.
+ */
+public class TzOffsetIndex
+{
+  public static final int   ANY_DST = 0;
+  public static final int   DST_ONLY = 1;
+  public static final int   STANDARD_ONLY = 2;
+
+  private final String[]  zoneIds;
+  private final int[]     offsets;      // Sorted distinct UTC offsets
+  private final int[]     firstLists;   // Index of the first interval list for each offset, plus one extra end marker
+  private final int[]     listZones;    // Zone index of each interval list, ascending within each offset
+  private final int[]     firstSpans;   // Index of the first interval of each list, plus one extra end marker
+  private final long[]    spanStarts;
+  private final long[]    spanEnds;
+  private final boolean[] spanDst;
+
+  public TzOffsetIndex(Map<String, TzTransitionList> compiledZones)
+  {
+    // Rank zones by population, so that each offset's interval lists can simply be sorted by zone index.
+    zoneIds = compiledZones.keySet().toArray(new String[0]);
+    Arrays.sort(zoneIds, (z1, z2) -> {
+      int   result = Long.compare(getPopulation(z2), getPopulation(z1));
+
+      return (result != 0 ? result : z1.compareTo(z2));
+    });
+
+    // Break each zone into spans of constant UTC offset and DST state, grouped by UTC offset, then by zone.
+    SortedMap<Integer, SortedMap<Integer, List<long[]>>>  spansByOffset = new TreeMap<>();
+    int                                                   spanCount = 0;
+    int                                                   listCount = 0;
+
+    for (int z = 0; z < zoneIds.length; ++z) {
+      TzTransitionList                    transitions = compiledZones.get(zoneIds[z]);
+      TzTransitionList.OffsetDictionary   dictionary = transitions.createOffsetDictionary();
+      int                                 size = transitions.size();
+
+      for (int i = 0; i < size;) {
+        int   utcOffset = dictionary.utcOffsets.get(dictionary.indices[i]);
+        int   dst = (dictionary.dstOffsets.get(dictionary.indices[i]) != 0 ? 1 : 0);
+        long  start = (i == 0 ? Long.MIN_VALUE : transitions.get(i).time);
+        int   j = i + 1;
+
+        while (j < size && dictionary.utcOffsets.get(dictionary.indices[j]) == utcOffset &&
+               (dictionary.dstOffsets.get(dictionary.indices[j]) != 0 ? 1 : 0) == dst)
+          ++j;
+
+        long            end = (j < size ? transitions.get(j).time : Long.MAX_VALUE);
+        List<long[]>    spans = spansByOffset.computeIfAbsent(utcOffset, k -> new TreeMap<>()).get(z);
+
+        if (spans == null) {
+          spans = new ArrayList<>();
+          spansByOffset.get(utcOffset).put(z, spans);
+          ++listCount;
+        }
+
+        spans.add(new long[] {start, end, dst});
+        ++spanCount;
+        i = j;
+      }
+    }
+
+    offsets = new int[spansByOffset.size()];
+    firstLists = new int[offsets.length + 1];
+    listZones = new int[listCount];
+    firstSpans = new int[listCount + 1];
+    spanStarts = new long[spanCount];
+    spanEnds = new long[spanCount];
+    spanDst = new boolean[spanCount];
+
+    int   k = 0;
+    int   list = 0;
+    int   span = 0;
+
+    for (Map.Entry<Integer, SortedMap<Integer, List<long[]>>> entry : spansByOffset.entrySet()) {
+      offsets[k] = entry.getKey();
+      firstLists[k++] = list;
+
+      for (Map.Entry<Integer, List<long[]>> zoneSpans : entry.getValue().entrySet()) {
+        listZones[list] = zoneSpans.getKey();
+        firstSpans[list++] = span;
+
+        // Spans were added in time order, and one zone's spans never overlap.
+        for (long[] s : zoneSpans.getValue()) {
+          spanStarts[span] = s[0];
+          spanEnds[span] = s[1];
+          spanDst[span++] = (s[2] != 0);
+        }
+      }
+    }
+
+    firstLists[k] = list;
+    firstSpans[list] = span;
+  }
+
+  public int getZoneCount()
+  {
+    return zoneIds.length;
+  }
+
+  /**
+   * @param zoneIndex Index as returned by findZones(), where a lower index means a larger population.
+   * @return Zone ID.
+   */
+  public String getZoneId(int zoneIndex)
+  {
+    return zoneIds[zoneIndex];
+  }
+
+  /**
+   * Find the zones with the given UTC offset at the given time, without creating any objects.
+   * @param utcOffset UTC offset in seconds, positive eastward from UTC.
+   * @param epochSecond Time in seconds from epoch.
+   * @param dstFilter ANY_DST, DST_ONLY, or STANDARD_ONLY.
+   * @param zoneIndices Receives the matching zone indices, in order of descending population.
+   * @return The number of matching zones. This may be larger than zoneIndices.length, in which case only
+   *         the first zoneIndices.length matches are stored.
+   */
+  public int findZones(int utcOffset, long epochSecond, int dstFilter, int[] zoneIndices)
+  {
+    int   k = Arrays.binarySearch(offsets, utcOffset);
+
+    if (k < 0)
+      return 0;
+
+    int   count = 0;
+
+    for (int list = firstLists[k]; list < firstLists[k + 1]; ++list) {
+      int   low = firstSpans[list];
+      int   high = firstSpans[list + 1] - 1;
+
+      if (spanStarts[low] > epochSecond || spanEnds[high] <= epochSecond)
+        continue;
+
+      // Find the last span starting at or before the given time.
+      while (low < high) {
+        int   mid = (low + high + 1) >>> 1;
+
+        if (spanStarts[mid] <= epochSecond)
+          low = mid;
+        else
+          high = mid - 1;
+      }
+
+      if (epochSecond >= spanEnds[low] ||
+          dstFilter == DST_ONLY && !spanDst[low] || dstFilter == STANDARD_ONLY && spanDst[low])
+        continue;
+
+      if (count < zoneIndices.length)
+        zoneIndices[count] = listZones[list];
+
+      ++count;
+    }
+
+    return count;
+  }
+
+  public List<String> findZoneIds(int utcOffset, long epochSecond, int dstFilter)
+  {
+    int[]         zoneIndices = new int[zoneIds.length];
+    int           count = findZones(utcOffset, epochSecond, dstFilter, zoneIndices);
+    List<String>  result = new ArrayList<>(count);
+
+    for (int i = 0; i < count; ++i)
+      result.add(zoneIds[zoneIndices[i]]);
+
+    return result;
+  }
+}
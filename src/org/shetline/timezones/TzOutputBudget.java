@@ -0,0 +1,450 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.*;
+import java.util.*;
+
+import static org.shetline.timezones.CompactTimeZoneGenerator.formatAliasData;
+import static org.shetline.timezones.CompactTimeZoneGenerator.formatZoneData;
+import static org.shetline.timezones.TzPopulationAndCountry.getPopulation;
+
+
+/**
+ * Finds the most accurate compact output that fits within a byte budget. Each unique zone can be kept as is,
+ * have its year range trimmed and/or its offsets rounded to whole minutes, become an alias for the most populous
+ * zone which currently keeps the same time, or be dropped altogether along with its aliases.
+ * <p>
+ * Output size is modeled as the sum of independent per-zone entry sizes, so that choosing a variant for one zone
+ * never requires re-encoding any other zone. Accuracy loss is measured in population-weighted years of wrong UTC
+ * or DST offsets within the compiled year range. Every zone counts as having at least MIN_WEIGHT people, so that
+ * zones without population data aren't free to drop.
+ */
+public class TzOutputBudget
+{
+  private static final long     MIN_WEIGHT = 1000;
+  private static final int[]    MIN_YEAR_STEPS = {1920, 1940, 1950, 1960, 1970, 1980, 1990, 2000};
+  private static final int[]    MAX_YEAR_STEPS = {2037, 2030, 2025};
+  private static final double   SECONDS_PER_YEAR = 365.2425 * 86400;
+  // Quotes, colon, spaces, indentation, and the comma and line break separating entries.
+  private static final int      ENTRY_OVERHEAD = 10;
+
+  private static class Variant
+  {
+    private String            description;
+    private String            table;
+    private TzTransitionList  transitions;
+    private String            aliasTarget;
+    private boolean           dropped;
+    private long              bytes;
+    private double            loss;
+  }
+
+  private class Zone
+  {
+    private final String        zoneId;
+    private final List<String>  aliases = new ArrayList<>();
+    private final List<Variant> variants = new ArrayList<>();
+    private TzTransitionList    reference;
+    private long                weight;
+    private Variant             chosen;
+    private Variant             next;
+    private double              nextRatio;
+
+    private Zone(String zoneId)
+    {
+      this.zoneId = zoneId;
+    }
+
+    private boolean findNextStep()
+    {
+      next = null;
+
+      for (Variant v : variants) {
+        if (v.bytes >= chosen.bytes)
+          continue;
+
+        double  ratio = (v.loss - chosen.loss) / (chosen.bytes - v.bytes);
+
+        if (next == null || ratio < nextRatio || (ratio == nextRatio && v.bytes < next.bytes)) {
+          next = v;
+          nextRatio = ratio;
+        }
+      }
+
+      return next != null;
+    }
+  }
+
+  private final int                             minYear;
+  private final int                             maxYear;
+  private final long                            startTime;
+  private final long                            endTime;
+  private final Map<String, Zone>               zones = new LinkedHashMap<>();
+  private final Map<String, TzTransitionList>   duplicateTransitionsByZone;
+  private long                                  size;
+  private long                                  originalSize;
+
+  public TzOutputBudget(List<String> uniqueZones, Map<String, String> compactTablesByZone,
+                        Map<String, TzTransitionList> transitionsByZone, Map<String, String> duplicates,
+                        Map<String, TzTransitionList> duplicateTransitionsByZone, int minYear, int maxYear,
+                        boolean fixCalendarRollbacks, boolean cutToTailRules, boolean yearIndex)
+  {
+    this.minYear = minYear;
+    this.maxYear = maxYear;
+    this.duplicateTransitionsByZone = duplicateTransitionsByZone;
+    startTime = LocalDate.of(minYear, 1, 1).toEpochDay() * 86400;
+    endTime = LocalDate.of(maxYear + 1, 1, 1).toEpochDay() * 86400;
+
+    for (String zoneId : uniqueZones)
+      zones.put(zoneId, new Zone(zoneId));
+
+    for (Map.Entry<String, String> entry : duplicates.entrySet()) {
+      Zone  zone = zones.get(entry.getValue());
+
+      if (zone != null)
+        zone.aliases.add(entry.getKey());
+    }
+
+    Map<String, Zone>   leadersByKey = new HashMap<>();
+    Map<Zone, String>   keysByZone = new HashMap<>();
+    Set<Zone>           leadersWithFollowers = new HashSet<>();
+
+    for (Zone zone : zones.values()) {
+      String  table = compactTablesByZone.get(zone.zoneId);
+
+      zone.weight = Math.max(getPopulation(zone.zoneId), MIN_WEIGHT);
+
+      for (String alias : zone.aliases)
+        zone.weight += Math.max(getPopulation(alias), MIN_WEIGHT);
+
+      zone.reference = TzTransitionList.expandCompactZoneTable(table, maxYear);
+
+      Variant   base = new Variant();
+
+      base.description = "unchanged";
+      base.table = table;
+      base.transitions = transitionsByZone.get(zone.zoneId);
+      base.bytes = tableBytes(zone, base, yearIndex);
+      zone.variants.add(base);
+      zone.chosen = base;
+
+      String  key = currentTimeKey(table, zone.reference);
+      Zone    leader = leadersByKey.get(key);
+
+      keysByZone.put(zone, key);
+
+      if (leader == null || leader.weight < zone.weight)
+        leadersByKey.put(key, zone);
+    }
+
+    for (Zone zone : zones.values()) {
+      Variant   base = zone.variants.get(0);
+
+      for (int trimMin : yearSteps(minYear, MIN_YEAR_STEPS, minYear, maxYear - 1)) {
+        for (int trimMax : yearSteps(maxYear, MAX_YEAR_STEPS, trimMin + 1, maxYear)) {
+          for (int round = 0; round < 2; ++round) {
+            if (trimMin == minYear && trimMax == maxYear && round == 0)
+              continue;
+
+            Variant           v = new Variant();
+            TzTransitionList  transitions = base.transitions.copy();
+
+            if (round != 0)
+              transitions.roundToMinutes();
+
+            transitions.trim(trimMin, trimMax);
+
+            if (transitions.isEmpty())
+              continue;
+
+            v.description = "years " + trimMin + "-" + trimMax + (round != 0 ? ", rounded to minutes" : "");
+            v.table = transitions.createCompactTransitionTable(fixCalendarRollbacks);
+
+            if (cutToTailRules)
+              v.table = transitions.cutToTailRules(v.table);
+
+            v.transitions = transitions;
+            v.bytes = tableBytes(zone, v, yearIndex);
+            v.loss = wrongYears(zone.reference, TzTransitionList.expandCompactZoneTable(v.table, maxYear)) * zone.weight;
+            zone.variants.add(v);
+          }
+        }
+      }
+
+      Zone  leader = leadersByKey.get(keysByZone.get(zone));
+
+      if (leader != zone) {
+        Variant   v = new Variant();
+
+        v.description = "aliased to " + leader.zoneId;
+        v.aliasTarget = leader.zoneId;
+        v.bytes = aliasBytes(zone, leader.zoneId);
+        v.loss = wrongYears(zone.reference, leader.reference) * zone.weight;
+        zone.variants.add(v);
+        leadersWithFollowers.add(leader);
+      }
+    }
+
+    for (Zone zone : zones.values()) {
+      if (!leadersWithFollowers.contains(zone)) {
+        Variant   v = new Variant();
+
+        v.description = "dropped" + (zone.aliases.isEmpty() ? "" : " along with " + String.join(", ", zone.aliases));
+        v.dropped = true;
+        v.loss = (endTime - startTime) / SECONDS_PER_YEAR * zone.weight;
+        zone.variants.add(v);
+      }
+
+      size += zone.chosen.bytes;
+    }
+
+    originalSize = size;
+  }
+
+  private static List<Integer> yearSteps(int first, int[] steps, int low, int high)
+  {
+    List<Integer>   years = new ArrayList<>();
+
+    years.add(first);
+
+    for (int year : steps) {
+      if (year != first && low <= year && year <= high)
+        years.add(year);
+    }
+
+    return years;
+  }
+
+  // Zones which agree on this key keep the same time now, and will continue to do so.
+  private static String currentTimeKey(String table, TzTransitionList expanded)
+  {
+    String[]      sections = table.split(";");
+    String[]      parts = sections[0].split(" ");
+    TzTransition  last = expanded.get(expanded.size() - 1);
+
+    return parts[1] + " " + parts[2] + ";" + (sections.length > 4 ? sections[4] : "") + ";" +
+           last.utcOffset + "/" + last.dstOffset + "/" + last.name;
+  }
+
+  private static long entryBytes(String zoneId, String zoneData)
+  {
+    return zoneId.length() + zoneData.getBytes(StandardCharsets.UTF_8).length + ENTRY_OVERHEAD;
+  }
+
+  private long tableBytes(Zone zone, Variant variant, boolean yearIndex)
+  {
+    long  bytes = entryBytes(zone.zoneId, formatZoneData(zone.zoneId, variant.table, variant.transitions, yearIndex, minYear, maxYear));
+
+    for (String alias : zone.aliases)
+      bytes += entryBytes(alias, formatAliasData(alias, zone.zoneId, isIanaAlias(alias)));
+
+    return bytes;
+  }
+
+  private long aliasBytes(Zone zone, String target)
+  {
+    long  bytes = entryBytes(zone.zoneId, formatAliasData(zone.zoneId, target, false));
+
+    for (String alias : zone.aliases)
+      bytes += entryBytes(alias, formatAliasData(alias, target, isIanaAlias(alias)));
+
+    return bytes;
+  }
+
+  private boolean isIanaAlias(String zoneId)
+  {
+    TzTransitionList  transitions = duplicateTransitionsByZone.get(zoneId);
+
+    return (transitions == null || transitions.getAliasFor() != null);
+  }
+
+  /**
+   * @return The number of years within the compiled year range during which the two transition lists disagree
+   *         about UTC or DST offset.
+   */
+  private double wrongYears(TzTransitionList list1, TzTransitionList list2)
+  {
+    int   i = 0;
+    int   j = 0;
+    long  time = startTime;
+    long  wrong = 0;
+
+    while (i + 1 < list1.size() && list1.get(i + 1).time <= time)
+      ++i;
+
+    while (j + 1 < list2.size() && list2.get(j + 1).time <= time)
+      ++j;
+
+    while (time < endTime) {
+      long  next1 = (i + 1 < list1.size() ? list1.get(i + 1).time : Long.MAX_VALUE);
+      long  next2 = (j + 1 < list2.size() ? list2.get(j + 1).time : Long.MAX_VALUE);
+      long  next = Math.min(Math.min(next1, next2), endTime);
+      TzTransition  t1 = list1.get(i);
+      TzTransition  t2 = list2.get(j);
+
+      if (t1.utcOffset != t2.utcOffset || t1.dstOffset != t2.dstOffset)
+        wrong += next - time;
+
+      time = next;
+
+      if (next1 == next)
+        ++i;
+
+      if (next2 == next)
+        ++j;
+    }
+
+    return wrong / SECONDS_PER_YEAR;
+  }
+
+  /**
+   * Choose a variant for each zone so that the total size of all zone entries fits within the given budget.
+   * Zones are stepped along the lower convex hull of their size/accuracy trade-offs, cheapest accuracy loss per
+   * byte saved first, after which any zone that can be made more accurate without going over budget is.
+   * @param budget Maximum total size, in bytes, of all zone entries.
+   * @return true if the output fits the budget. If false, the output is as small as it can be made.
+   */
+  public boolean fit(long budget)
+  {
+    PriorityQueue<Zone>   steps = new PriorityQueue<>(Comparator.comparingDouble((Zone z) -> z.nextRatio)
+                                                      .thenComparing(z -> z.zoneId));
+
+    for (Zone zone : zones.values()) {
+      if (zone.findNextStep())
+        steps.add(zone);
+    }
+
+    while (size > budget && !steps.isEmpty()) {
+      Zone  zone = steps.poll();
+
+      size += zone.next.bytes - zone.chosen.bytes;
+      zone.chosen = zone.next;
+
+      if (zone.findNextStep())
+        steps.add(zone);
+    }
+
+    List<Zone>  byWeight = new ArrayList<>(zones.values());
+
+    byWeight.sort(Comparator.comparingLong((Zone z) -> -z.weight).thenComparing(z -> z.zoneId));
+
+    for (Zone zone : byWeight) {
+      for (Variant v : zone.variants) {
+        if (v.loss < zone.chosen.loss && size + v.bytes - zone.chosen.bytes <= budget && !breaksAlias(zone, v)) {
+          size += v.bytes - zone.chosen.bytes;
+          zone.chosen = v;
+        }
+      }
+    }
+
+    // Aliases end up with whatever their target zone ended up with, so measure the loss against that.
+    for (Zone zone : zones.values()) {
+      if (zone.chosen.aliasTarget != null) {
+        Variant   target = zones.get(zone.chosen.aliasTarget).chosen;
+
+        zone.chosen.loss = wrongYears(zone.reference, TzTransitionList.expandCompactZoneTable(target.table, maxYear)) * zone.weight;
+      }
+    }
+
+    return size <= budget;
+  }
+
+  // Only zones which nothing is aliased to can be dropped.
+  private boolean breaksAlias(Zone zone, Variant v)
+  {
+    return v.dropped && zones.values().stream().anyMatch(z -> zone.zoneId.equals(z.chosen.aliasTarget));
+  }
+
+  public long getOriginalSize()
+  {
+    return originalSize;
+  }
+
+  public long getSize()
+  {
+    return size;
+  }
+
+  public double getLoss()
+  {
+    double  loss = 0;
+
+    for (Zone zone : zones.values())
+      loss += zone.chosen.loss;
+
+    return loss;
+  }
+
+  /**
+   * Update the generator's collections of zones, tables and aliases to reflect the chosen variants.
+   */
+  public void apply(List<String> uniqueZones, Map<String, String> compactTablesByZone,
+                    Map<String, TzTransitionList> transitionsByZone, Map<String, String> duplicates,
+                    List<String> duplicateZones)
+  {
+    for (Zone zone : zones.values()) {
+      Variant   v = zone.chosen;
+
+      if (v.dropped || v.aliasTarget != null) {
+        uniqueZones.remove(zone.zoneId);
+        compactTablesByZone.remove(zone.zoneId);
+        transitionsByZone.remove(zone.zoneId);
+
+        for (String alias : zone.aliases) {
+          if (v.dropped) {
+            duplicates.remove(alias);
+            duplicateZones.remove(alias);
+          }
+          else
+            duplicates.put(alias, v.aliasTarget);
+        }
+
+        if (v.aliasTarget != null) {
+          duplicates.put(zone.zoneId, v.aliasTarget);
+          duplicateZones.add(zone.zoneId);
+          duplicateTransitionsByZone.put(zone.zoneId, new TzTransitionList(zone.zoneId));
+        }
+      }
+      else if (v.table != zone.variants.get(0).table) {
+        compactTablesByZone.put(zone.zoneId, v.table);
+        transitionsByZone.put(zone.zoneId, v.transitions);
+      }
+    }
+
+    Collections.sort(duplicateZones);
+  }
+
+  public void report(PrintStream out)
+  {
+    for (Zone zone : zones.values()) {
+      Variant   v = zone.chosen;
+
+      if (v != zone.variants.get(0))
+        out.printf("  %s: %s, %d bytes saved, %.1f person-years of wrong offsets%n", zone.zoneId, v.description,
+                   zone.variants.get(0).bytes - v.bytes, v.loss);
+    }
+
+    out.printf("Zone data reduced from %d to %d bytes, %.1f person-years of wrong offsets in total%n",
+               originalSize, size, getLoss());
+  }
+}
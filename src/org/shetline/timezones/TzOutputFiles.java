@@ -0,0 +1,128 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Writes generated files, optionally along with gzip-compressed copies (file name plus .gz) for servers and CDNs
+ * which can deliver precompressed content. A compressed copy is written concurrently with its plain file.
+ * Each file is written to a temporary file first and then moved into place, so readers never see a partly
+ * written file.
+ */
+public class TzOutputFiles
+{
+  public static void write(File file, byte[] content, boolean gzip) throws IOException
+  {
+    CompletableFuture<Void>   compressed = null;
+
+    if (gzip) {
+      compressed = CompletableFuture.runAsync(() -> {
+        try {
+          writeGzip(new File(file.getPath() + ".gz"), content);
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    }
+
+    writeAtomically(file, content);
+
+    if (compressed != null) {
+      try {
+        compressed.join();
+      }
+      catch (CompletionException e) {
+        if (e.getCause() instanceof UncheckedIOException)
+          throw ((UncheckedIOException) e.getCause()).getCause();
+
+        throw e;
+      }
+    }
+  }
+
+  private static void writeGzip(File file, byte[] content) throws IOException
+  {
+    ByteArrayOutputStream   bytes = new ByteArrayOutputStream(content.length / 4);
+
+    try (OutputStream out = new GZIPOutputStream(bytes) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+      out.write(content);
+    }
+
+    writeAtomically(file, bytes.toByteArray());
+  }
+
+  public static void writeAtomically(File file, byte[] content) throws IOException
+  {
+    Path  target = file.getAbsoluteFile().toPath();
+    Path  temp = tempSibling(target);
+
+    try {
+      Files.write(temp, content);
+      moveAtomically(temp, target);
+    }
+    finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Write a gzip-compressed (.gz) copy of an already written file, without reading the whole file into memory.
+   */
+  public static void writeGzipCopy(File file) throws IOException
+  {
+    Path  target = new File(file.getAbsolutePath() + ".gz").toPath();
+    Path  temp = tempSibling(target);
+
+    try {
+      try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp)) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+        Files.copy(file.toPath(), out);
+      }
+
+      moveAtomically(temp, target);
+    }
+    finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private static Path tempSibling(Path target)
+  {
+    // Not Files.createTempFile(), which would give the output owner-only permissions.
+    return target.resolveSibling("." + target.getFileName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+  }
+
+  private static void moveAtomically(Path temp, Path target) throws IOException
+  {
+    try {
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.shetline.timezones.CompactTimeZoneGenerator.*;
+
+
+/**
+ * One combination of output options (year range, rounding, calendar rollback fixing, filtering, single zone and
+ * format), able to render itself from compiled time zones. Used where compiled zones are kept in memory and
+ * rendered repeatedly, as by the HTTP server and watch modes.
+ */
+public class TzOutputVariant
+{
+  public static final Set<String>   FORMATS = Set.of("js", "json", "text", "resolver");
+
+  int       minYear = DEFAULT_MIN_YEAR;
+  int       maxYear = DEFAULT_MAX_YEAR;
+  boolean   roundToMinutes;
+  boolean   fixCalendarRollbacks;
+  boolean   filtered;
+  String    singleZone;
+  String    format = "js";
+
+  /**
+   * @return Key identifying the compiled zones (and parser settings) this variant needs.
+   */
+  String compiledKey()
+  {
+    return roundToMinutes + "," + minYear + "," + maxYear;
+  }
+
+  String key()
+  {
+    return compiledKey() + "," + fixCalendarRollbacks + "," + filtered + "," + format + "," + singleZone;
+  }
+
+  public String getContentType()
+  {
+    switch (format) {
+      case "json":      return "application/json; charset=utf-8";
+      case "text":      return "text/plain; charset=utf-8";
+      case "resolver":  return "application/octet-stream";
+      default:          return "application/javascript; charset=utf-8";
+    }
+  }
+
+  /**
+   * @param compiled Compiled zones matching this variant's year range and rounding. These are not modified.
+   * @param tzVersion tz database version for the output comment.
+   * @return Rendered output, or null if a single zone was requested which isn't among the compiled zones.
+   */
+  public byte[] render(Map<String, TzTransitionList> compiled, String tzVersion) throws IOException
+  {
+    List<String>  savedZones = new ArrayList<>();
+
+    for (String zoneId : compiled.keySet()) {
+      if ((singleZone == null || zoneId.equals(singleZone)) && (!filtered || !isFilteredOut(zoneId)))
+        savedZones.add(zoneId);
+    }
+
+    if (savedZones.isEmpty() && singleZone != null)
+      return null;
+
+    Collections.sort(savedZones);
+
+    Map<String, String>             zonesByCompactTable = new HashMap<>();
+    Map<String, String>             compactTablesByZone = new HashMap<>();
+    Map<String, TzTransitionList>   transitionsByZone = new HashMap<>();
+    Map<String, TzTransitionList>   duplicateTransitionsByZone = new HashMap<>();
+    Map<String, String>             duplicates = new HashMap<>();
+
+    // Transition lists are copied because fixing calendar rollbacks modifies them.
+    for (String zoneId : savedZones) {
+      TzTransitionList  transitions = compiled.get(zoneId).copy();
+
+      if (fixCalendarRollbacks)
+        transitions.findCalendarRollbacks(true, false);
+
+      addCompactTable(zoneId, transitions.createCompactTransitionTable(fixCalendarRollbacks), transitions,
+                      zonesByCompactTable, compactTablesByZone, transitionsByZone, duplicates, duplicateTransitionsByZone);
+    }
+
+    resolveDuplicateChains(duplicates);
+
+    List<String>  uniqueZones = new ArrayList<>(compactTablesByZone.keySet());
+    List<String>  duplicateZones = new ArrayList<>(duplicates.keySet());
+
+    Collections.sort(uniqueZones);
+    Collections.sort(duplicateZones);
+
+    if ("resolver".equals(format)) {
+      ByteArrayOutputStream   out = new ByteArrayOutputStream();
+
+      new TzZoneIdResolver(uniqueZones, duplicates).write(out);
+
+      return out.toByteArray();
+    }
+
+    StringWriter  buffer = new StringWriter();
+    PrintWriter   out = new PrintWriter(buffer);
+
+    if ("text".equals(format)) {
+      for (String zoneId : savedZones) {
+        transitionsByZone.getOrDefault(zoneId, transitionsByZone.get(duplicates.get(zoneId))).dump(out, roundToMinutes);
+        out.println();
+        out.println();
+      }
+    }
+    else {
+      String  comment = "tz database version: " + tzVersion + ", years " + minYear + "-" + maxYear;
+
+      if (roundToMinutes)
+        comment += ", rounded to nearest minute";
+
+      if (filtered)
+        comment += ", filtered";
+
+      if (fixCalendarRollbacks)
+        comment += ", calendar rollbacks eliminated";
+
+      new TzCompactOutput(compactTablesByZone, transitionsByZone, duplicates, duplicateTransitionsByZone, minYear, maxYear,
+                          false, "json".equals(format), comment).write(out, uniqueZones, duplicateZones);
+    }
+
+    out.close();
+
+    return buffer.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
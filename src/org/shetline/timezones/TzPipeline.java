@@ -0,0 +1,268 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.shetline.timezones;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.shetline.timezones.CompactTimeZoneGenerator.*;
+
+
+/**
+ * The generator's parse, compile and render steps as a library API, configured with a builder. A pipeline is
+ * immutable, so one instance may be shared by many threads, and the TzDatabase it parses may be compiled by any
+ * number of threads at once.
+ *
+ * <pre>
+ *   TzPipeline  pipeline = TzPipeline.builder().source("2021a").years(1900, 2050).format("json").build();
+ *   byte[]      output = pipeline.run();
+ * </pre>
+ */
+public final class TzPipeline
+{
+  private final String            urlOrVersion;
+  private final File              archive;
+  private final File              directory;
+  private final boolean           includeSystemV;
+  private final int               parallelism;
+  private final TzOutputVariant   variant;
+
+  private TzPipeline(Builder builder)
+  {
+    urlOrVersion = builder.urlOrVersion;
+    archive = builder.archive;
+    directory = builder.directory;
+    includeSystemV = builder.includeSystemV;
+    parallelism = builder.parallelism;
+
+    // Copied, so that later use of the builder doesn't affect this pipeline.
+    variant = new TzOutputVariant();
+    variant.minYear = builder.variant.minYear;
+    variant.maxYear = builder.variant.maxYear;
+    variant.roundToMinutes = builder.variant.roundToMinutes;
+    variant.fixCalendarRollbacks = builder.variant.fixCalendarRollbacks;
+    variant.filtered = builder.variant.filtered && builder.variant.singleZone == null;
+    variant.singleZone = builder.variant.singleZone;
+    variant.format = builder.variant.format;
+  }
+
+  public static Builder builder()
+  {
+    return new Builder();
+  }
+
+  public static final class Builder
+  {
+    private String                  urlOrVersion;
+    private File                    archive;
+    private File                    directory;
+    private boolean                 includeSystemV;
+    private int                     parallelism = 1;
+    private final TzOutputVariant   variant = new TzOutputVariant();
+
+    private Builder()
+    {
+    }
+
+    /**
+     * @param urlOrVersion URL of a tz database archive, a version such as "2021a", or null for the latest release.
+     */
+    public Builder source(String urlOrVersion)
+    {
+      this.urlOrVersion = urlOrVersion;
+      archive = directory = null;
+
+      return this;
+    }
+
+    public Builder archive(File archive)
+    {
+      this.archive = archive;
+      urlOrVersion = null;
+      directory = null;
+
+      return this;
+    }
+
+    public Builder directory(File directory)
+    {
+      this.directory = directory;
+      urlOrVersion = null;
+      archive = null;
+
+      return this;
+    }
+
+    public Builder years(int minYear, int maxYear)
+    {
+      if (minYear < 0 || minYear > maxYear)
+        throw new IllegalArgumentException("Invalid year range: " + minYear + "-" + maxYear);
+
+      variant.minYear = minYear;
+      variant.maxYear = maxYear;
+
+      return this;
+    }
+
+    public Builder roundToMinutes(boolean roundToMinutes)
+    {
+      variant.roundToMinutes = roundToMinutes;
+
+      return this;
+    }
+
+    public Builder fixCalendarRollbacks(boolean fixCalendarRollbacks)
+    {
+      variant.fixCalendarRollbacks = fixCalendarRollbacks;
+
+      return this;
+    }
+
+    public Builder filtered(boolean filtered)
+    {
+      variant.filtered = filtered;
+
+      return this;
+    }
+
+    public Builder singleZone(String zoneId)
+    {
+      variant.singleZone = zoneId;
+
+      return this;
+    }
+
+    /**
+     * @param format One of "js", "json", "text" or "resolver".
+     */
+    public Builder format(String format)
+    {
+      if (!TzOutputVariant.FORMATS.contains(format))
+        throw new IllegalArgumentException("Unknown format: " + format);
+
+      variant.format = format;
+
+      return this;
+    }
+
+    public Builder includeSystemV(boolean includeSystemV)
+    {
+      this.includeSystemV = includeSystemV;
+
+      return this;
+    }
+
+    /**
+     * @param parallelism Number of threads used to compile zones, 1 (the default) to compile on the calling thread.
+     */
+    public Builder parallelism(int parallelism)
+    {
+      if (parallelism < 1)
+        throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+
+      this.parallelism = parallelism;
+
+      return this;
+    }
+
+    public TzPipeline build()
+    {
+      return new TzPipeline(this);
+    }
+  }
+
+  /**
+   * Parse the configured source with a parser of its own, so separate calls never share parser state.
+   */
+  public TzDatabase parse() throws IOException, IanaParserException
+  {
+    IanaZonesAndRulesParser   parser = new IanaZonesAndRulesParser(variant.roundToMinutes, false);
+
+    if (directory != null)
+      parser.parseDirectory(directory, includeSystemV);
+    else if (archive != null)
+      parser.parseArchive(archive, includeSystemV);
+    else
+      parser.parseFromOnline(urlOrVersion, includeSystemV);
+
+    return parser.snapshot();
+  }
+
+  public Map<String, TzTransitionList> compile(TzDatabase database)
+  {
+    TzCompiler    compiler = new TzCompiler(database);
+    List<String>  zoneIds = new ArrayList<>();
+
+    for (String zoneId : database.getZoneIds()) {
+      if ((variant.singleZone == null || zoneId.equals(variant.singleZone)) &&
+          (!variant.filtered || !isFilteredOut(zoneId)))
+        zoneIds.add(zoneId);
+    }
+
+    if (parallelism == 1) {
+      Map<String, TzTransitionList>   compiled = new HashMap<>();
+
+      for (String zoneId : zoneIds)
+        compiled.put(zoneId, compiler.compile(zoneId, variant.minYear, variant.maxYear));
+
+      return compiled;
+    }
+
+    ForkJoinPool  pool = new ForkJoinPool(parallelism);
+
+    try {
+      return pool.submit(() -> zoneIds.parallelStream().collect(Collectors.toConcurrentMap(zoneId -> zoneId,
+        zoneId -> compiler.compile(zoneId, variant.minYear, variant.maxYear)))).get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Compilation interrupted");
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+
+      throw new IllegalStateException(e.getCause());
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * @return Rendered output, or null if the configured single zone isn't among the compiled zones.
+   */
+  public byte[] render(Map<String, TzTransitionList> compiled, String tzVersion) throws IOException
+  {
+    return variant.render(compiled, tzVersion);
+  }
+
+  /**
+   * Parse, compile and render in one step.
+   * @return Rendered output, or null if the configured single zone doesn't exist.
+   */
+  public byte[] run() throws IOException, IanaParserException
+  {
+    TzDatabase  database = parse();
+
+    return render(compile(database), database.getVersion());
+  }
+}
@@ -1,9 +1,20 @@
 package org.shetline.timezones;
 
-import java.util.HashMap;
+import java.util.*;
 
+/**
+ * Population and country data for time zones. The raw data below is compiled once into packed arrays: zone IDs
+ * (sorted, for binary search), populations, a bitset of country codes for each zone, and for each country, the
+ * list of its zones in order of descending population.
+ */
 public class TzPopulationAndCountry {
-  private static final HashMap<String, String> zoneInfo = new HashMap<>();
+  private static final String[]   zoneIds;
+  private static final long[]     populations;
+  private static final String[]   populationAndCountries;
+  private static final String[]   countryCodes;
+  private static final int        countryWords;
+  private static final long[]     countryBits;
+  private static final int[][]    zonesByCountry;
 
   @SuppressWarnings("SpellCheckingInspection")
   private static final String[] populationAndCountryData = {
@@ -550,60 +561,162 @@ public class TzPopulationAndCountry {
   };
 
   static {
-    for (int i = 0; i < populationAndCountryData.length; i += 2) {
-      zoneInfo.put(populationAndCountryData[i], populationAndCountryData[i + 1]);
+    int   count = populationAndCountryData.length / 2;
+    var   sortedData = new String[count][];
+
+    for (int i = 0; i < count; ++i)
+      sortedData[i] = new String[] {populationAndCountryData[i * 2], populationAndCountryData[i * 2 + 1]};
+
+    Arrays.sort(sortedData, Comparator.comparing(entry -> entry[0]));
+    zoneIds = new String[count];
+    populations = new long[count];
+    populationAndCountries = new String[count];
+
+    var   countriesByZone = new String[count][];
+    var   allCountries = new TreeSet<String>();
+
+    for (int i = 0; i < count; ++i) {
+      var info = sortedData[i][1];
+      var parts = info.split(";");
+
+      zoneIds[i] = sortedData[i][0];
+      populations[i] = (parts.length > 0 ? TzUtil.to_long(parts[0]) : 0);
+      countriesByZone[i] = (parts.length > 1 ? parts[1].split(" ") : new String[0]);
+      allCountries.addAll(Arrays.asList(countriesByZone[i]));
+
+      var not2 = false;
+
+      for (var country : countriesByZone[i]) {
+        if (country.length() != 2) {
+          not2 = true;
+          break;
+        }
+      }
+
+      if (parts.length > 1 && !not2)
+        info = info.replaceAll(" ", "");
+
+      populationAndCountries[i] = info;
+    }
+
+    countryCodes = allCountries.toArray(new String[0]);
+    countryWords = (countryCodes.length + 63) / 64;
+    countryBits = new long[count * countryWords];
+
+    var zoneCounts = new int[countryCodes.length];
+
+    for (int i = 0; i < count; ++i) {
+      for (var country : countriesByZone[i]) {
+        int   c = Arrays.binarySearch(countryCodes, country);
+
+        countryBits[i * countryWords + c / 64] |= 1L << (c % 64);
+        ++zoneCounts[c];
+      }
+    }
+
+    var byPopulation = new Integer[count];
+
+    for (int i = 0; i < count; ++i)
+      byPopulation[i] = i;
+
+    Arrays.sort(byPopulation, (z1, z2) -> Long.compare(populations[z2], populations[z1]));
+    zonesByCountry = new int[countryCodes.length][];
+
+    for (int c = 0; c < countryCodes.length; ++c)
+      zonesByCountry[c] = new int[zoneCounts[c]];
+
+    var filled = new int[countryCodes.length];
+
+    for (int z : byPopulation) {
+      for (int c = 0; c < countryCodes.length; ++c) {
+        if (hasCountry(z, c))
+          zonesByCountry[c][filled[c]++] = z;
+      }
     }
   }
 
-  public static long getPopulation(String zoneId)
+  private static int zoneIndex(String zoneId)
   {
-    if (zoneInfo.containsKey(zoneId)) {
-      var info = zoneInfo.get(zoneId);
-      var parts = info.split(";");
+    return (zoneId == null ? -1 : Arrays.binarySearch(zoneIds, zoneId));
+  }
 
-      if (parts.length > 0)
-        return TzUtil.to_long(parts[0]);
-    }
+  private static boolean hasCountry(int zoneIndex, int countryIndex)
+  {
+    return (countryBits[zoneIndex * countryWords + countryIndex / 64] & (1L << (countryIndex % 64))) != 0;
+  }
+
+  public static long getPopulation(String zoneId)
+  {
+    int   index = zoneIndex(zoneId);
 
-    return 0;
+    return (index < 0 ? 0 : populations[index]);
   }
 
   public static String getPopulationAndCountries(String zoneId)
   {
-    if (zoneInfo.containsKey(zoneId)) {
-      var info = zoneInfo.get(zoneId);
-      var parts = info.split(";");
-
-      if (parts.length > 1) {
-        var countries = parts[1].split(" ");
-        var not2 = false;
+    int   index = zoneIndex(zoneId);
 
-        for (var country : countries) {
-          if (country.length() != 2) {
-            not2 = true;
-            break;
-          }
-        }
+    return (index < 0 ? null : populationAndCountries[index]);
+  }
 
-        if (!not2)
-          info = info.replaceAll(" ", "");
-      }
+  public static String appendPopulationAndCountries(String zoneData, String zoneId) {
+    var partsCount = 1;
 
-      return info;
+    for (int i = 0; i < zoneData.length(); ++i) {
+      if (zoneData.charAt(i) == ';')
+        ++partsCount;
     }
 
-    return null;
+    return zoneData + getPopulationAndCountriesSuffix(partsCount, zoneId);
   }
 
-  public static String appendPopulationAndCountries(String zoneData, String zoneId) {
+  /**
+   * @return What appendPopulationAndCountries() appends to zone data with the given number of semicolon-separated
+   *         parts.
+   */
+  public static String getPopulationAndCountriesSuffix(int partsCount, String zoneId) {
     var info = getPopulationAndCountries(zoneId);
 
-    if (info != null) {
-      var partsCount = zoneData.split(";").length;
+    return (info == null ? "" : ";".repeat(6 - partsCount) + info);
+  }
+
+  public static List<String> getCountries(String zoneId)
+  {
+    int   index = zoneIndex(zoneId);
+    var   countries = new ArrayList<String>();
+
+    if (index >= 0) {
+      for (int c = 0; c < countryCodes.length; ++c) {
+        if (hasCountry(index, c))
+          countries.add(countryCodes[c]);
+      }
+    }
+
+    return countries;
+  }
+
+  public static boolean isInCountry(String zoneId, String countryCode)
+  {
+    int   index = zoneIndex(zoneId);
+    int   c = Arrays.binarySearch(countryCodes, countryCode);
+
+    return (index >= 0 && c >= 0 && hasCountry(index, c));
+  }
+
+  /**
+   * @param countryCode Two-letter country code.
+   * @return Zones used in the given country, in order of descending population.
+   */
+  public static List<String> getZonesForCountry(String countryCode)
+  {
+    int   c = Arrays.binarySearch(countryCodes, countryCode);
+    var   zones = new ArrayList<String>();
 
-      zoneData += ";".repeat(6 - partsCount) + info;
+    if (c >= 0) {
+      for (int z : zonesByCountry[c])
+        zones.add(zoneIds[z]);
     }
 
-    return zoneData;
+    return zones;
   }
 }
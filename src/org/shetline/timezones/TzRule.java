@@ -22,7 +22,7 @@ package org.shetline.timezones;
 import static org.shetline.timezones.TzUtil.*;
 
 
-public class TzRule
+public class TzRule implements Cloneable
 {
   protected String  name;
   protected int     startYear;
@@ -75,7 +75,7 @@ public class TzRule
       rule.dayOfMonth = to_int(parts[6].substring(pos + 2));
       rule.dayOfWeek = indexOfFailNotFound(DAYS, parts[6].substring(0, 3)) / 3 + 1;
     }
-    else if (parts[6].contains("<=")) {
+    else if ((pos = parts[6].indexOf("<=")) > 0) {
       rule.dayOfMonth = -to_int(parts[6].substring(pos + 2));
       rule.dayOfWeek = indexOfFailNotFound(DAYS, parts[6].substring(0, 3)) / 3 + 1;
     }
@@ -99,6 +99,84 @@ public class TzRule
     return rule;
   }
 
+  /**
+   * Find the date on which this rule takes effect in the given year.
+   * @param year Year for which to apply this rule.
+   * @return Day number (days from epoch). This may fall outside the rule's month when a day-of-week
+   *         search crosses a month boundary.
+   */
+  public long getTransitionDayNumber(int year)
+  {
+    int   date;
+
+    if (dayOfWeek >= 0 && dayOfMonth > 0) {
+      date = getDayOnOrAfter(year, month, dayOfWeek, dayOfMonth);
+
+      if (date <= 0)
+        date = dayOfMonth - date;
+    }
+    else if (dayOfWeek >= 0 && dayOfMonth < 0) {
+      date = getDayOnOrBefore(year, month, dayOfWeek, -dayOfMonth);
+
+      if (date <= 0)
+        date = -dayOfMonth + date;
+    }
+    else if (dayOfWeek >= 0)
+      date = getDateOfNthWeekdayOfMonth(year, month, dayOfWeek, LAST);
+    else
+      date = dayOfMonth;
+
+    return getDayNumber(year, month, date);
+  }
+
+  /**
+   * Find the moment this rule takes effect in the given year, without creating any objects.
+   * @param year Year for which to apply this rule.
+   * @param stdOffset Standard time UTC offset in seconds.
+   * @param dstOffset DST offset in seconds in effect just before this rule takes effect.
+   * @return Transition time in seconds from epoch.
+   */
+  public long getTransitionTime(int year, int stdOffset, int dstOffset)
+  {
+    long  time = getTransitionDayNumber(year) * 86400 + (atHour * 60 + atMinute) * 60;
+
+    if (atType == CLOCK_TYPE_WALL)
+      time -= stdOffset + dstOffset;
+    else if (atType == CLOCK_TYPE_STD)
+      time -= stdOffset;
+
+    return time;
+  }
+
+  public static TzRule parseCompactTailRule(String compactRule)
+  {
+    TzRule    rule = new TzRule();
+    String[]  parts = compactRule.split("[ :]");
+
+    rule.startYear = to_int(parts[0]);
+    rule.endYear = Integer.MAX_VALUE;
+    rule.month = to_int(parts[1]);
+    rule.dayOfMonth = to_int(parts[2]);
+    rule.dayOfWeek = to_int(parts[3]);
+    rule.atHour = to_int(parts[4]);
+    rule.atMinute = to_int(parts[5]);
+    rule.atType = to_int(parts[6]);
+    rule.save = to_int(parts[7]) * 60;
+
+    return rule;
+  }
+
+  @Override
+  public Object clone()
+  {
+    try {
+      return super.clone();
+    }
+    catch (CloneNotSupportedException e) {}
+
+    return null; // Should be impossible to end up here
+  }
+
   public String toCompactTailRule()
   {
     return startYear + " " + month + " " + dayOfMonth + " " + dayOfWeek + " " + atHour + ":" + atMinute + " " + atType + " " + (save / 60);
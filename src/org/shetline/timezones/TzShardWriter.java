@@ -0,0 +1,277 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+import static org.shetline.timezones.CompactTimeZoneGenerator.splitRegionAndLocale;
+
+
+/**
+ * Writes compact time zone output as one file per shard, along with a manifest mapping every zone and alias to
+ * its shard, and each shard to a hash of its zone data. By default zones are sharded by region (Africa, America,
+ * Europe, etc.), and zones without a region go into the "Other" shard. Aliases go into the shard of the zone
+ * they refer to, so a client only ever needs one shard for a given zone.
+ */
+public class TzShardWriter
+{
+  public static final String  MANIFEST_FILE = "manifest.json";
+
+  private static final String DEFAULT_SHARD = "Other";
+
+  private final TzCompactOutput       output;
+  private final boolean               gzip;
+  private final Map<String, Pattern>  customShards = new LinkedHashMap<>();
+
+  private static class Shard
+  {
+    private final String        name;
+    private final List<String>  zones = new ArrayList<>();
+    private final List<String>  aliases = new ArrayList<>();
+    private String              fileName;
+    private String              hash;
+
+    private Shard(String name)
+    {
+      this.name = name;
+    }
+  }
+
+  /**
+   * @param output Compact output to be divided into shards.
+   * @param gzip If true, also write a gzip-compressed copy of each shard and of the manifest.
+   */
+  public TzShardWriter(TzCompactOutput output, boolean gzip)
+  {
+    this.output = output;
+    this.gzip = gzip;
+  }
+
+  /**
+   * Read custom shard assignments. Each line holds a shard name followed by a regular expression for the zone IDs
+   * which belong in that shard. The first matching pattern wins, and zones matching no pattern are sharded by
+   * region. Blank lines and lines starting with # are ignored.
+   */
+  public void readGrouping(File file) throws IOException
+  {
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+      String  line;
+
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+
+        if (line.isEmpty() || line.startsWith("#"))
+          continue;
+
+        String[]  parts = line.split("\\s+", 2);
+
+        if (parts.length < 2)
+          throw new IOException("Invalid shard grouping: " + line);
+
+        customShards.put(parts[0], Pattern.compile(parts[1]));
+      }
+    }
+  }
+
+  public String getShardName(String zoneId)
+  {
+    for (Map.Entry<String, Pattern> entry : customShards.entrySet()) {
+      if (entry.getValue().matcher(zoneId).matches())
+        return entry.getKey();
+    }
+
+    String[]  regionAndLocale = splitRegionAndLocale(zoneId);
+
+    return (regionAndLocale[1] == null ? DEFAULT_SHARD : regionAndLocale[0]);
+  }
+
+  /**
+   * Write all shards, in parallel, followed by the manifest.
+   * @param directory Directory for shard files and manifest, created if necessary.
+   * @param uniqueZones Zones to write in full.
+   * @param aliases Zones to write as references to other zones.
+   * @param tzVersion tz database version, recorded in the manifest.
+   */
+  public void write(File directory, List<String> uniqueZones, List<String> aliases, String tzVersion) throws IOException
+  {
+    Map<String, Shard>  shards = new TreeMap<>();
+    Map<String, String> shardsByZone = new TreeMap<>();
+
+    for (String zoneId : uniqueZones) {
+      String  name = getShardName(zoneId);
+
+      shards.computeIfAbsent(name, Shard::new).zones.add(zoneId);
+      shardsByZone.put(zoneId, name);
+    }
+
+    for (String zoneId : aliases) {
+      String  name = shardsByZone.get(output.getUniqueZone(zoneId));
+
+      if (name != null) {
+        shards.get(name).aliases.add(zoneId);
+        shardsByZone.put(zoneId, name);
+      }
+    }
+
+    Map<String, Shard>  shardsByFile = new HashMap<>();
+
+    for (Shard shard : shards.values()) {
+      shard.fileName = shard.name.replaceAll("[^-\\w]", "-") + (output.isJson() ? ".json" : ".js");
+
+      // Compare file names without regard to case, so the same files can be written on any file system.
+      String  key = shard.fileName.toLowerCase(Locale.ROOT);
+      Shard   other = shardsByFile.put(key, shard);
+
+      if (other != null)
+        throw new IOException("Shards \"" + other.name + "\" and \"" + shard.name + "\" would both be written to " +
+                              shard.fileName);
+      else if (key.equals(MANIFEST_FILE))
+        throw new IOException("Shard \"" + shard.name + "\" would overwrite " + MANIFEST_FILE);
+    }
+
+    if (!directory.isDirectory() && !directory.mkdirs())
+      throw new IOException("Can't create directory " + directory);
+
+    ExecutorService   executor = Executors.newFixedThreadPool(Math.max(Math.min(shards.size(),
+                                                              Runtime.getRuntime().availableProcessors()), 1));
+    List<Future<?>>   futures = new ArrayList<>();
+
+    try {
+      for (Shard shard : shards.values())
+        futures.add(executor.submit(() -> { writeShard(directory, shard); return null; }));
+
+      for (Future<?> future : futures)
+        future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing shards");
+    }
+    catch (ExecutionException e) {
+      Throwable   cause = e.getCause();
+
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      else if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      else
+        throw new RuntimeException(cause);
+    }
+    finally {
+      executor.shutdown();
+    }
+
+    TzOutputFiles.write(new File(directory, MANIFEST_FILE), createManifest(shards, shardsByZone, tzVersion)
+                                                             .getBytes(StandardCharsets.UTF_8), gzip);
+  }
+
+  private void writeShard(File directory, Shard shard) throws IOException
+  {
+    StringWriter  sw = new StringWriter();
+    PrintWriter   out = new PrintWriter(sw);
+
+    output.write(out, shard.zones, shard.aliases);
+    out.flush();
+
+    String  text = sw.toString();
+    byte[]  content = text.getBytes(StandardCharsets.UTF_8);
+
+    // The opening comment of JavaScript output names the tz database version, which is already in the manifest.
+    // Leaving it out of the hash keeps the hash of a shard whose zones haven't changed the same from one release
+    // to the next.
+    if (!output.isJson())
+      text = text.substring(text.indexOf('\n') + 1);
+
+    shard.hash = sha256(text.getBytes(StandardCharsets.UTF_8));
+    TzOutputFiles.write(new File(directory, shard.fileName), content, gzip);
+  }
+
+  private static String sha256(byte[] content)
+  {
+    try {
+      StringBuilder   sb = new StringBuilder();
+
+      for (byte b : MessageDigest.getInstance("SHA-256").digest(content))
+        sb.append(String.format("%02x", b));
+
+      return sb.toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e); // Every Java platform is required to support SHA-256.
+    }
+  }
+
+  private static String createManifest(Map<String, Shard> shards, Map<String, String> shardsByZone, String tzVersion)
+  {
+    StringWriter  sw = new StringWriter();
+
+    try (PrintWriter out = new PrintWriter(sw)) {
+      boolean   first = true;
+
+      out.println("{");
+      out.println("  \"version\": " + toJsonString(tzVersion) + ",");
+      out.println("  \"shards\": {");
+
+      for (Shard shard : shards.values()) {
+        out.print((first ? "" : ",\n") + "    " + toJsonString(shard.name) + ": {\"file\": " + toJsonString(shard.fileName) +
+                  ", \"hash\": \"" + shard.hash + "\", \"zones\": " + (shard.zones.size() + shard.aliases.size()) + "}");
+        first = false;
+      }
+
+      out.println();
+      out.println("  },");
+      out.println("  \"zones\": {");
+      first = true;
+
+      for (Map.Entry<String, String> entry : shardsByZone.entrySet()) {
+        out.print((first ? "" : ",\n") + "    " + toJsonString(entry.getKey()) + ": " + toJsonString(entry.getValue()));
+        first = false;
+      }
+
+      out.println();
+      out.println("  }");
+      out.println("}");
+    }
+
+    return sw.toString();
+  }
+
+  private static String toJsonString(String s)
+  {
+    StringBuilder   sb = new StringBuilder("\"");
+
+    for (char c : s.toCharArray()) {
+      if (c == '"' || c == '\\')
+        sb.append('\\').append(c);
+      else if (c < 0x20)
+        sb.append(String.format("\\u%04x", (int) c));
+      else
+        sb.append(c);
+    }
+
+    return sb.append('"').toString();
+  }
+}
@@ -0,0 +1,168 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+
+/**
+ * Watches a directory of tz database source files, and whenever one changes, re-parses only that file,
+ * recompiles only the zones it affects, and rewrites the output file.
+ */
+public class TzSourceWatcher
+{
+  // Editors often save a file as several separate changes, so wait for changes to settle.
+  private static final long   SETTLE_MILLIS = 100;
+
+  private final File                            directory;
+  private final File                            outFile;
+  private final TzOutputVariant                 variant;
+  private final boolean                         includeSystemV;
+  private final boolean                         gzip;
+  private IanaZonesAndRulesParser               parser;
+  private TzCompiler                            compiler;
+  private final Map<String, TzTransitionList>   compiled = new HashMap<>();
+  private String                                tzVersion;
+
+  public TzSourceWatcher(File directory, File outFile, TzOutputVariant variant, boolean includeSystemV, boolean gzip)
+  {
+    this.directory = directory;
+    this.outFile = outFile;
+    this.variant = variant;
+    this.includeSystemV = includeSystemV;
+    this.gzip = gzip;
+  }
+
+  /**
+   * Parse and compile all sources and write the initial output.
+   */
+  public void initialize() throws IOException, IanaParserException
+  {
+    parser = new IanaZonesAndRulesParser(variant.roundToMinutes, false);
+    tzVersion = parser.parseDirectory(directory, includeSystemV);
+    compiler = new TzCompiler(parser);
+    compiled.clear();
+    compiled.putAll(compiler.compileAll(variant.minYear, variant.maxYear));
+    write();
+  }
+
+  /**
+   * Apply changes to one source file and rewrite the output.
+   * @return IDs of the zones recompiled or removed.
+   */
+  public Set<String> update(String sourceName) throws IOException, IanaParserException
+  {
+    File    file = new File(directory, sourceName);
+    byte[]  content = new byte[0];
+
+    if (file.isFile()) {
+      try (InputStream in = new FileInputStream(file)) {
+        content = IanaZonesAndRulesParser.prepareSource(sourceName, in.readAllBytes(), includeSystemV);
+      }
+    }
+
+    Set<String>   changed = parser.reparseSource(sourceName, new ByteArrayInputStream(content));
+
+    compiler = new TzCompiler(parser);
+
+    for (String zoneId : changed) {
+      if (parser.getZone(zoneId) != null)
+        compiled.put(zoneId, compiler.compile(zoneId, variant.minYear, variant.maxYear));
+      else
+        compiled.remove(zoneId);
+    }
+
+    write();
+
+    return changed;
+  }
+
+  private void write() throws IOException
+  {
+    byte[]  content = variant.render(compiled, tzVersion);
+
+    if (content == null)
+      throw new IOException("Unknown time zone: " + variant.singleZone);
+
+    TzOutputFiles.write(outFile, content, gzip);
+  }
+
+  /**
+   * Watch for changes until interrupted, reporting each update, or any error it causes, without stopping.
+   */
+  public void watch() throws IOException, InterruptedException
+  {
+    try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+      directory.toPath().register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+
+      while (true) {
+        Set<String>   changedFiles = new TreeSet<>();
+        WatchKey      key = watcher.take();
+
+        do {
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() != OVERFLOW)
+              changedFiles.add(event.context().toString());
+            else {
+              // Events were lost, so check everything.
+              changedFiles.add("version");
+              changedFiles.addAll(Arrays.asList(IanaZonesAndRulesParser.getSourceNames()));
+            }
+          }
+
+          if (!key.reset())
+            throw new IOException("No longer able to watch " + directory);
+        } while ((key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+
+        for (String fileName : changedFiles) {
+          long  start = System.nanoTime();
+
+          try {
+            if ("version".equals(fileName)) {
+              File  versionFile = new File(directory, fileName);
+
+              tzVersion = (versionFile.isFile() ? new String(Files.readAllBytes(versionFile.toPath())).trim() : "unknown");
+              write();
+              System.out.println("tz database version: " + tzVersion);
+            }
+            else if (IanaZonesAndRulesParser.isSourceName(fileName)) {
+              Set<String>   changed = update(fileName);
+
+              System.out.println(fileName + ": " + changed.size() + " time zone" + (changed.size() == 1 ? "" : "s") +
+                                 " updated in " + (System.nanoTime() - start) / 1000000 + " ms" +
+                                 (changed.isEmpty() ? "" : " (" + String.join(", ", new TreeSet<>(changed)) + ")"));
+            }
+          }
+          catch (IanaParserException e) {
+            CompactTimeZoneGenerator.reportParserException(e);
+          }
+          catch (IOException | RuntimeException e) {
+            System.err.println("*** " + fileName + ": " + e);
+          }
+        }
+      }
+    }
+  }
+}
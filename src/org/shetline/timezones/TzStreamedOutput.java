@@ -0,0 +1,168 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import static org.shetline.timezones.CompactTimeZoneGenerator.addCompactTable;
+import static org.shetline.timezones.CompactTimeZoneGenerator.resolveDuplicateChains;
+import static org.shetline.timezones.TzPopulationAndCountry.getPopulationAndCountriesSuffix;
+
+
+/**
+ * Compact output for very wide year ranges, where holding every zone's transitions and compact table in memory at
+ * once would take too much memory. Zones are compiled as TzStreamedTransitions twice: first to find duplicate
+ * tables by comparing SHA-256 digests of them, then again to write each unique table directly to the output.
+ */
+public class TzStreamedOutput extends TzCompactOutput
+{
+  private final TzCompiler                      compiler;
+  private final Map<String, String>             digestsByZone;
+  private final Map<String, TzTransitionList>   aliasesByZone;
+  private final Map<String, String>             duplicates;
+  private final Map<String, TzTransitionList>   duplicateAliasesByZone;
+  private final int                             minYear;
+  private final int                             maxYear;
+
+  public TzStreamedOutput(TzCompiler compiler, int minYear, int maxYear, boolean json, String comment)
+  {
+    this(compiler, new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>(), minYear, maxYear, json, comment);
+  }
+
+  private TzStreamedOutput(TzCompiler compiler, Map<String, String> digestsByZone, Map<String, TzTransitionList> aliasesByZone,
+                           Map<String, String> duplicates, Map<String, TzTransitionList> duplicateAliasesByZone,
+                           int minYear, int maxYear, boolean json, String comment)
+  {
+    super(digestsByZone, aliasesByZone, duplicates, duplicateAliasesByZone, minYear, maxYear, false, json, comment);
+    this.compiler = compiler;
+    this.digestsByZone = digestsByZone;
+    this.aliasesByZone = aliasesByZone;
+    this.duplicates = duplicates;
+    this.duplicateAliasesByZone = duplicateAliasesByZone;
+    this.minYear = minYear;
+    this.maxYear = maxYear;
+  }
+
+  /**
+   * Compile the given zones, keeping only a digest of each compact table, and treating zones with identical
+   * tables as duplicates, just as CompactTimeZoneGenerator.addCompactTable() does.
+   * @return The number of unique tables.
+   */
+  public int add(List<String> zoneIds, boolean showWarnings, TzGeneratorMetrics metrics)
+  {
+    Map<String, String>   zonesByDigest = new HashMap<>();
+    int                   unique = zoneIds.size();
+
+    for (String zoneId : zoneIds) {
+      long                      start = System.nanoTime();
+      TzStreamedTransitions     transitions;
+      TzGeneratorMetrics.Phase  compilePhase = metrics.start("compile");
+
+      try {
+        transitions = compiler.compileStreamed(zoneId, minYear, maxYear);
+      }
+      finally {
+        compilePhase.close();
+      }
+
+      TzTransitionList          explicit = transitions.getExplicitTransitions();
+
+      metrics.recordZoneCompile(zoneId, System.nanoTime() - start);
+
+      TzGeneratorMetrics.Phase  encodePhase = metrics.start("encode");
+
+      try {
+        // Any rollbacks in the repeating part of the transitions are found in the one explicit cycle of it.
+        if (showWarnings && explicit.findCalendarRollbacks(false, true) == TzTransitionList.Rollbacks.ROLLBACKS_REMAIN)
+          System.err.println("*** Failed to fix calendar rollbacks in " + zoneId);
+
+        String  digest = digest(transitions);
+
+        // Only the alias is kept, as that's all that's needed of a zone's transitions for writing output.
+        if (!addCompactTable(zoneId, digest, new TzTransitionList(zoneId, explicit.getAliasFor()), zonesByDigest,
+                             digestsByZone, aliasesByZone, duplicates, duplicateAliasesByZone))
+          --unique;
+      }
+      finally {
+        encodePhase.close();
+      }
+    }
+
+    resolveDuplicateChains(duplicates);
+
+    return unique;
+  }
+
+  public List<String> getUniqueZones()
+  {
+    List<String>  uniqueZones = new ArrayList<>(digestsByZone.keySet());
+
+    Collections.sort(uniqueZones);
+
+    return uniqueZones;
+  }
+
+  public List<String> getDuplicateZones()
+  {
+    List<String>  duplicateZones = new ArrayList<>(duplicates.keySet());
+
+    Collections.sort(duplicateZones);
+
+    return duplicateZones;
+  }
+
+  @Override
+  protected void writeZoneData(PrintWriter out, String zoneId)
+  {
+    try {
+      int   parts = compiler.compileStreamed(zoneId, minYear, maxYear).writeCompactTable(out);
+
+      out.print(getPopulationAndCountriesSuffix(parts, zoneId));
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static String digest(TzStreamedTransitions transitions)
+  {
+    try {
+      MessageDigest   digest = MessageDigest.getInstance("SHA-256");
+
+      try (Writer out = new BufferedWriter(new OutputStreamWriter(new DigestOutputStream(OutputStream.nullOutputStream(),
+                                                                                          digest), StandardCharsets.UTF_8))) {
+        transitions.writeCompactTable(out);
+      }
+
+      return Base64.getEncoder().encodeToString(digest.digest());
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+import static java.lang.Math.abs;
+import static org.shetline.timezones.TzUtil.*;
+
+
+/**
+ * A zone's transitions for a possibly very wide year range, held as an explicit list plus, for zones whose final
+ * DST rules continue indefinitely, one explicitly compiled 400-year cycle of those rules. The Gregorian calendar
+ * repeats exactly every 400 years, so all later transitions are the cycle's transitions shifted by whole cycles,
+ * and are generated as they're visited instead of being stored.
+ */
+public class TzStreamedTransitions
+{
+  public interface TransitionVisitor
+  {
+    /**
+     * @param time Transition time, in seconds from epoch.
+     * @param index Index of the explicit transition with the same offsets and name.
+     */
+    void visit(long time, int index) throws IOException;
+  }
+
+  public static final int   CYCLE_YEARS = 400;
+  public static final long  CYCLE_SECONDS = 146097L * 86400;
+
+  private final TzTransitionList  transitions;
+  private final int               maxYear;
+  private final int               lastRuleYear;
+  private final int               cycleStart;
+  private final int[]             utcYears;
+  private final int[]             localYears;
+  private final int[]             ruleYears;
+
+  public TzStreamedTransitions(TzTransitionList transitions)
+  {
+    this.transitions = transitions;
+    maxYear = lastRuleYear = 0;
+    cycleStart = -1;
+    utcYears = localYears = ruleYears = null;
+  }
+
+  private TzStreamedTransitions(TzTransitionList transitions, int maxYear, int cycleStart)
+  {
+    int   cycleLength = transitions.size() - cycleStart;
+
+    this.transitions = transitions;
+    this.maxYear = maxYear;
+    lastRuleYear = Math.min(maxYear, 9999); // Same limit as TzCompiler.applyRules()
+    this.cycleStart = cycleStart;
+    utcYears = new int[cycleLength];
+    localYears = new int[cycleLength];
+    ruleYears = new int[cycleLength];
+  }
+
+  /**
+   * @param transitions Transitions compiled through at least two years past the end of the cycle.
+   * @param cycleYear First year of the cycle.
+   * @param maxYear Last year of the full range.
+   * @return Cycle-based transitions, or null if the transitions following the cycle don't repeat it, in which
+   *         case the zone has to be compiled explicitly.
+   */
+  static TzStreamedTransitions fromCycle(TzTransitionList transitions, int cycleYear, int maxYear)
+  {
+    long  start = LocalDate.of(cycleYear, 1, 1).toEpochDay() * 86400;
+    long  firstYearEnd = LocalDate.of(cycleYear + 1, 1, 1).toEpochDay() * 86400;
+    long  end = start + CYCLE_SECONDS;
+    int   cycleStart = 0;
+    int   cycleEnd;
+
+    while (cycleStart < transitions.size() && transitions.get(cycleStart).time < start)
+      ++cycleStart;
+
+    cycleEnd = cycleStart;
+
+    while (cycleEnd < transitions.size() && transitions.get(cycleEnd).time < end)
+      ++cycleEnd;
+
+    if (cycleStart < 1 || cycleStart == cycleEnd)
+      return null;
+
+    // The first year after the cycle must be the cycle's first year over again.
+    int   i = cycleStart;
+    int   j = cycleEnd;
+
+    for (; i < cycleEnd && transitions.get(i).time < firstYearEnd; ++i, ++j) {
+      TzTransition  t1 = transitions.get(i);
+      TzTransition  t2 = (j < transitions.size() ? transitions.get(j) : null);
+
+      if (t2 == null || t2.time != t1.time + CYCLE_SECONDS || t2.utcOffset != t1.utcOffset ||
+          t2.dstOffset != t1.dstOffset || !equal(t2.name, t1.name))
+        return null;
+    }
+
+    if (j < transitions.size() && transitions.get(j).time < firstYearEnd + CYCLE_SECONDS)
+      return null;
+
+    transitions.subList(cycleEnd, transitions.size()).clear();
+
+    TzStreamedTransitions   streamed = new TzStreamedTransitions(transitions, maxYear, cycleStart);
+
+    for (i = cycleStart; i < cycleEnd; ++i) {
+      TzTransition  tzt = transitions.get(i);
+      int           utcYear = LocalDateTime.ofEpochSecond(tzt.time, 0, ZoneOffset.UTC).getYear();
+
+      if (tzt.rule == null)
+        return null;
+
+      streamed.utcYears[i - cycleStart] = utcYear;
+      streamed.localYears[i - cycleStart] = LocalDateTime.ofEpochSecond(tzt.time + tzt.utcOffset, 0, ZoneOffset.UTC).getYear();
+      streamed.ruleYears[i - cycleStart] = Integer.MAX_VALUE;
+
+      // The year of the rule which produced the transition may differ from the UTC year by one, either way.
+      for (int year = utcYear - 1; year <= utcYear + 1; ++year) {
+        if (abs(tzt.rule.getTransitionDayNumber(year) * 86400 - tzt.time) < 86400 * 3)
+          streamed.ruleYears[i - cycleStart] = year;
+      }
+
+      if (streamed.ruleYears[i - cycleStart] == Integer.MAX_VALUE)
+        return null;
+    }
+
+    return streamed;
+  }
+
+  /**
+   * @return The explicit transitions, which, if this zone's transitions repeat, end with one cycle of them.
+   */
+  public TzTransitionList getExplicitTransitions()
+  {
+    return transitions;
+  }
+
+  public boolean isCyclic()
+  {
+    return cycleStart >= 0;
+  }
+
+  /**
+   * Visit every transition in order, ending, as TzTransitionList.trim() does, on a transition to standard time
+   * within the year range.
+   */
+  public void forEach(TransitionVisitor visitor) throws IOException
+  {
+    if (cycleStart < 0) {
+      for (int i = 0; i < transitions.size(); ++i)
+        visitor.visit(transitions.get(i).time, i);
+
+      return;
+    }
+
+    for (int i = 0; i < cycleStart; ++i)
+      visitor.visit(transitions.get(i).time, i);
+
+    int       cycleLength = transitions.size() - cycleStart;
+    int       lastUtcYear = Math.min(maxYear, lastRuleYear + 1);
+    long[]    pendingTimes = new long[cycleLength];
+    int[]     pendingIndices = new int[cycleLength];
+    int       pending = 0;
+
+    for (int cycle = 0; ; ++cycle) {
+      int   yearShift = cycle * CYCLE_YEARS;
+
+      for (int j = 0; j < cycleLength; ++j) {
+        if (utcYears[j] + yearShift > lastUtcYear)
+          return;
+        else if (ruleYears[j] + yearShift > lastRuleYear)
+          continue;
+
+        int           index = cycleStart + j;
+        TzTransition  tzt = transitions.get(index);
+        long          time = tzt.time + cycle * CYCLE_SECONDS;
+
+        if (tzt.dstOffset != 0 || localYears[j] + yearShift > maxYear) {
+          if (pending == pendingTimes.length) {
+            pendingTimes = Arrays.copyOf(pendingTimes, pending * 2);
+            pendingIndices = Arrays.copyOf(pendingIndices, pending * 2);
+          }
+
+          pendingTimes[pending] = time;
+          pendingIndices[pending++] = index;
+        }
+        else {
+          for (int k = 0; k < pending; ++k)
+            visitor.visit(pendingTimes[k], pendingIndices[k]);
+
+          pending = 0;
+          visitor.visit(time, index);
+        }
+      }
+    }
+  }
+
+  /**
+   * Write the same compact table that TzTransitionList.createCompactTransitionTable() would create for the full
+   * list of transitions, without ever holding the full list.
+   * @return The number of semicolon-separated parts written.
+   */
+  public int writeCompactTable(Appendable out) throws IOException
+  {
+    if (cycleStart < 0) {
+      String  table = transitions.createCompactTransitionTable();
+
+      out.append(table);
+
+      return (int) table.chars().filter(c -> c == ';').count() + 1;
+    }
+
+    TzTransitionList.TailRules          tail = transitions.findTailRules();
+    TzTransitionList.OffsetDictionary   dictionary = transitions.createOffsetDictionary();
+    long[]                              lastTime = {0};
+    boolean[]                           separate = {false};
+
+    out.append(formatOffsetNotation(transitions.get(0).utcOffset)).append(' ')
+      .append(formatOffsetNotation(tail.stdOffset)).append(' ').append(String.valueOf(tail.dstOffset / 60)).append(';');
+    out.append(String.join(" ", dictionary.offsets)).append(';');
+
+    forEach((time, index) -> {
+      if (index > 0)
+        out.append(toBase60(dictionary.indices[index]));
+    });
+
+    out.append(';');
+
+    forEach((time, index) -> {
+      if (index > 0) {
+        if (separate[0])
+          out.append(' ');
+
+        separate[0] = true;
+        out.append(toBase60((time - lastTime[0]) / 60.0));
+        lastTime[0] = time;
+      }
+    });
+
+    if (!tail.hasRules())
+      return 4;
+
+    out.append(';').append(tail.stdRule.toCompactTailRule()).append(',').append(tail.dstRule.toCompactTailRule());
+
+    return 5;
+  }
+}
@@ -0,0 +1,212 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+
+/**
+ * An immutable, compact copy of a compiled transition list, held in primitive arrays rather than as a list of
+ * TzTransition objects. Equality and hash code are based on content, so identical blocks can be shared.
+ */
+public final class TzTransitionBlock
+{
+  private static final long  MAX_SECONDS_PER_YEAR =     366 * 86400;
+  private static final long  AVERAGE_SECONDS_PER_YEAR = 31556952;
+
+  private final long[]    times;
+  private final int[]     utcOffsets;
+  private final int[]     dstOffsets;
+  private final String[]  names;
+  private final int       hash;
+  private final long[]    yearStartTimes;
+  private final int[]     yearStartIndices;
+
+  // The arrays are kept, not copied, so callers must hand over arrays which nothing else modifies.
+  TzTransitionBlock(long[] times, int[] utcOffsets, int[] dstOffsets, String[] names)
+  {
+    this(times, utcOffsets, dstOffsets, names, null, null);
+  }
+
+  private TzTransitionBlock(long[] times, int[] utcOffsets, int[] dstOffsets, String[] names, long[] yearStartTimes,
+                            int[] yearStartIndices)
+  {
+    this.times = times;
+    this.utcOffsets = utcOffsets;
+    this.dstOffsets = dstOffsets;
+    this.names = names;
+    this.yearStartTimes = yearStartTimes;
+    this.yearStartIndices = yearStartIndices;
+
+    int   h = Arrays.hashCode(times);
+
+    h = h * 31 + Arrays.hashCode(utcOffsets);
+    h = h * 31 + Arrays.hashCode(dstOffsets);
+    h = h * 31 + Arrays.hashCode(names);
+    hash = h;
+  }
+
+  public static TzTransitionBlock fromTransitionList(TzTransitionList transitions)
+  {
+    int       size = transitions.size();
+    long[]    times = new long[size];
+    int[]     utcOffsets = new int[size];
+    int[]     dstOffsets = new int[size];
+    String[]  names = new String[size];
+
+    for (int i = 0; i < size; ++i) {
+      TzTransition  tzt = transitions.get(i);
+
+      times[i] = tzt.time;
+      utcOffsets[i] = tzt.utcOffset;
+      dstOffsets[i] = tzt.dstOffset;
+      names[i] = tzt.name;
+    }
+
+    return new TzTransitionBlock(times, utcOffsets, dstOffsets, names);
+  }
+
+  /**
+   * Create a copy of this block which, for times between the start of minYear and the end of maxYear (UTC),
+   * finds transitions with one array lookup plus a short forward scan instead of a binary search.
+   */
+  public TzTransitionBlock withYearIndex(int minYear, int maxYear)
+  {
+    int       years = maxYear - minYear + 1;
+    long[]    startTimes = new long[years];
+    int[]     startIndices = new int[years];
+    int       index = 0;
+
+    for (int i = 0; i < years; ++i) {
+      startTimes[i] = LocalDate.of(minYear + i, 1, 1).toEpochDay() * 86400;
+
+      while (index < times.length && times[index] < startTimes[i])
+        ++index;
+
+      startIndices[i] = Math.max(index - 1, 0);
+    }
+
+    return new TzTransitionBlock(times, utcOffsets, dstOffsets, names, startTimes, startIndices);
+  }
+
+  public int size()
+  {
+    return times.length;
+  }
+
+  public long getTime(int index)
+  {
+    return times[index];
+  }
+
+  public int getUtcOffset(int index)
+  {
+    return utcOffsets[index];
+  }
+
+  public int getDstOffset(int index)
+  {
+    return dstOffsets[index];
+  }
+
+  public String getName(int index)
+  {
+    return names[index];
+  }
+
+  /**
+   * Find the transition in effect at the given time.
+   * @param epochSecond Time in seconds from epoch.
+   * @return Index of the last transition at or before the given time, or 0 if the time precedes all transitions.
+   */
+  public int findTransitionIndex(long epochSecond)
+  {
+    if (yearStartTimes != null && epochSecond >= yearStartTimes[0] &&
+        epochSecond < yearStartTimes[yearStartTimes.length - 1] + MAX_SECONDS_PER_YEAR) {
+      // Estimate from the average Gregorian year length, which is off by at most one year.
+      int   y = (int) Math.min((epochSecond - yearStartTimes[0]) / AVERAGE_SECONDS_PER_YEAR, yearStartTimes.length - 1);
+
+      if (yearStartTimes[y] > epochSecond)
+        --y;
+      else if (y + 1 < yearStartTimes.length && yearStartTimes[y + 1] <= epochSecond)
+        ++y;
+
+      int   i = yearStartIndices[y];
+
+      while (i + 1 < times.length && times[i + 1] <= epochSecond)
+        ++i;
+
+      return i;
+    }
+
+    int   low = 0;
+    int   high = times.length - 1;
+
+    while (low < high) {
+      int   mid = (low + high + 1) >>> 1;
+
+      if (times[mid] <= epochSecond)
+        low = mid;
+      else
+        high = mid - 1;
+    }
+
+    return low;
+  }
+
+  public int getUtcOffsetAt(long epochSecond)
+  {
+    return utcOffsets[findTransitionIndex(epochSecond)];
+  }
+
+  public int getDstOffsetAt(long epochSecond)
+  {
+    return dstOffsets[findTransitionIndex(epochSecond)];
+  }
+
+  public String getNameAt(long epochSecond)
+  {
+    return names[findTransitionIndex(epochSecond)];
+  }
+
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (obj == this)
+      return true;
+    else if (!(obj instanceof TzTransitionBlock))
+      return false;
+
+    TzTransitionBlock   other = (TzTransitionBlock) obj;
+
+    return hash == other.hash &&
+           Arrays.equals(times, other.times) &&
+           Arrays.equals(utcOffsets, other.utcOffsets) &&
+           Arrays.equals(dstOffsets, other.dstOffsets) &&
+           Arrays.equals(names, other.names);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return hash;
+  }
+}
@@ -0,0 +1,132 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.time.*;
+
+import static org.shetline.timezones.TzUtil.*;
+
+
+/**
+ * The first point in time at which two compiled versions of the same time zone disagree, along with
+ * the offsets and names each version has in effect at that moment.
+ */
+public class TzTransitionDiff
+{
+  private final String        zoneId;
+  private final long          time;
+  private final TzTransition  oldState;
+  private final TzTransition  newState;
+
+  public TzTransitionDiff(String zoneId, long time, TzTransition oldState, TzTransition newState)
+  {
+    this.zoneId = zoneId;
+    this.time = time;
+    this.oldState = oldState;
+    this.newState = newState;
+  }
+
+  /**
+   * Compare two transition lists for the same zone by stepping through both (already sorted) lists
+   * together, one transition time at a time.
+   * @param zoneId Zone ID used for reporting.
+   * @param oldList Transitions from the older version, or null if the zone didn't exist.
+   * @param newList Transitions from the newer version, or null if the zone doesn't exist anymore.
+   * @return The first difference found, or null if both lists produce the same offsets and names at all times.
+   */
+  public static TzTransitionDiff findFirstDifference(String zoneId, TzTransitionList oldList, TzTransitionList newList)
+  {
+    int           oldSize = (oldList == null ? 0 : oldList.size());
+    int           newSize = (newList == null ? 0 : newList.size());
+    int           i = 0;
+    int           j = 0;
+    TzTransition  oldState = (oldSize > 0 ? oldList.get(0) : null);
+    TzTransition  newState = (newSize > 0 ? newList.get(0) : null);
+    long          time = MIN_JS_SAFE_INTEGER;
+
+    while (true) {
+      if (!sameState(oldState, newState))
+        return new TzTransitionDiff(zoneId, time, oldState, newState);
+
+      long  nextOld = (i + 1 < oldSize ? oldList.get(i + 1).time : Long.MAX_VALUE);
+      long  nextNew = (j + 1 < newSize ? newList.get(j + 1).time : Long.MAX_VALUE);
+
+      if (nextOld == Long.MAX_VALUE && nextNew == Long.MAX_VALUE)
+        return null;
+
+      time = Math.min(nextOld, nextNew);
+
+      if (nextOld == time)
+        oldState = oldList.get(++i);
+
+      if (nextNew == time)
+        newState = newList.get(++j);
+    }
+  }
+
+  private static boolean sameState(TzTransition t1, TzTransition t2)
+  {
+    if (t1 == null || t2 == null)
+      return (t1 == t2);
+
+    return t1.utcOffset == t2.utcOffset && t1.dstOffset == t2.dstOffset && equal(t1.name, t2.name);
+  }
+
+  public String getZoneId()
+  {
+    return zoneId;
+  }
+
+  public long getTime()
+  {
+    return time;
+  }
+
+  public TzTransition getOldState()
+  {
+    return oldState;
+  }
+
+  public TzTransition getNewState()
+  {
+    return newState;
+  }
+
+  private static String formatState(TzTransition state)
+  {
+    if (state == null)
+      return "(none)";
+
+    return formatOffsetNotation(state.utcOffset) + " " + formatOffsetNotation(state.dstOffset) +
+           (state.name != null ? " " + state.name : "");
+  }
+
+  public String toString()
+  {
+    String  s;
+
+    if (time == MIN_JS_SAFE_INTEGER)
+      s = "---";
+    else
+      s = LocalDateTime.ofEpochSecond(time, 0, ZoneOffset.UTC).format(dateTimeFormat) + " UTC";
+
+    return zoneId + ": " + s + ", old: " + formatState(oldState) + ", new: " + formatState(newState);
+  }
+}
@@ -27,7 +27,7 @@ import java.time.zone.*;
 import java.util.*;
 import java.util.regex.*;
 
-import static java.lang.Math.abs;
+import static java.lang.Math.*;
 import static org.shetline.timezones.TzUtil.*;
 
 public class TzTransitionList extends ArrayList<TzTransition>
@@ -35,10 +35,12 @@ public class TzTransitionList extends ArrayList<TzTransition>
   private String          zoneId = null;
   private IanaZoneRecord  lastZoneRec = null;
   private boolean         fromJava = false;
+  private int             tailRuleCutYear = 0;
   public String           aliasFor = null;
 
   private static final Pattern  systemV = Pattern.compile("SystemV/(\\w\\w\\w)\\d(\\w\\w\\w)");
   private static final int      ZONE_MATCHING_TOLERANCE = 3600 * 24 * 30 * 3; // Three months, in seconds.
+  private static final int      TAIL_RULE_GAP = 86400 * 2; // Same as TIME_GAP_AFTER_LAST_TRANSITION used by clients.
 
   public TzTransitionList()
   {
@@ -280,6 +282,61 @@ public class TzTransitionList extends ArrayList<TzTransition>
     return aliasFor;
   }
 
+  /**
+   * Parse a compact zone table the way a client does, extending the explicit transitions with transitions
+   * generated from the table's tail rules, if any.
+   * @param table Compact zone table.
+   * @param throughYear Last year (UTC) for which to generate transitions from tail rules.
+   */
+  public static TzTransitionList expandCompactZoneTable(String table, int throughYear)
+  {
+    TzTransitionList  transitions = parseCompactZoneTable(table);
+    String[]          sections = table.split(";");
+
+    if (sections.length < 5 || sections[4].isEmpty() || transitions.size() < 2)
+      return transitions;
+
+    String[]  parts = sections[0].split(" ");
+    int       stdOffset = parseOffsetNotation(parts[1]);
+    int       dstOffset = to_int(parts[2]) * 60;
+    String[]  rules = sections[4].split(",");
+    TzRule    stdRule = TzRule.parseCompactTailRule(rules[0]);
+    TzRule    dstRule = TzRule.parseCompactTailRule(rules[1]);
+    String    stdName = null;
+    String    dstName = null;
+
+    for (int i = 1; i < transitions.size(); ++i) {
+      TzTransition  tzt = transitions.get(i);
+
+      if (tzt.dstOffset != 0)
+        dstName = tzt.name;
+      else
+        stdName = tzt.name;
+    }
+
+    long  lastTime = transitions.get(transitions.size() - 1).time;
+    int   startYear = LocalDateTime.ofEpochSecond(lastTime, 0, ZoneOffset.UTC).getYear() - 1;
+
+    for (int year = startYear; year <= throughYear; ++year) {
+      long    stdTime = stdRule.getTransitionTime(year, stdOffset, dstOffset);
+      long    dstTime = dstRule.getTransitionTime(year, stdOffset, 0);
+      TzRule  firstRule = (dstTime < stdTime ? dstRule : stdRule);
+      long    firstTime = min(dstTime, stdTime);
+      TzRule  secondRule = (dstTime > stdTime ? dstRule : stdRule);
+      long    secondTime = max(dstTime, stdTime);
+
+      if (firstTime > lastTime + TAIL_RULE_GAP && year >= firstRule.startYear)
+        transitions.add(new TzTransition(firstTime, stdOffset + firstRule.save, firstRule.save,
+                                         firstRule.save != 0 ? dstName : stdName));
+
+      if (secondTime > lastTime + TAIL_RULE_GAP && year >= secondRule.startYear)
+        transitions.add(new TzTransition(secondTime, stdOffset + secondRule.save, secondRule.save,
+                                         secondRule.save != 0 ? dstName : stdName));
+    }
+
+    return transitions;
+  }
+
   public IanaZoneRecord getLastZoneRec()
   {
     return lastZoneRec;
@@ -351,6 +408,31 @@ public class TzTransitionList extends ArrayList<TzTransition>
       return Rollbacks.ROLLBACKS_REMOVED;
   }
 
+  public TzTransitionList copy()
+  {
+    TzTransitionList  copy = new TzTransitionList(zoneId, aliasFor);
+
+    copy.addAll(cloneTransitions());
+    copy.lastZoneRec = lastZoneRec;
+    copy.fromJava = fromJava;
+    copy.tailRuleCutYear = tailRuleCutYear;
+
+    return copy;
+  }
+
+  public void roundToMinutes()
+  {
+    for (TzTransition tzt : this) {
+      if (tzt.time != MIN_JS_SAFE_INTEGER)
+        tzt.time = conditionallyRoundToMinutes(tzt.time, true);
+
+      tzt.utcOffset = conditionallyRoundToMinutes(tzt.utcOffset, true);
+      tzt.dstOffset = conditionallyRoundToMinutes(tzt.dstOffset, true);
+    }
+
+    removeDuplicateTransitions();
+  }
+
   public void removeDuplicateTransitions()
   {
     for (int i = 1; i < size(); ++i) {
@@ -412,18 +494,30 @@ public class TzTransitionList extends ArrayList<TzTransition>
     return createCompactTransitionTable(false);
   }
 
-  // The format produced here borrows some key ideas, like the use of base-60 numbers, from the moment.js timezone package.
-  // https://momentjs.com/timezone/
-  //
-  // Though somewhat similar in appearance, the format is not compatible.
-  public String createCompactTransitionTable(boolean fixCalendarRollbacks)
+  /**
+   * The nominal standard and DST offsets in effect at the end of a transition list, and, for zones which
+   * still observe DST, the pair of rules that generate transitions beyond the end of the list.
+   */
+  public static class TailRules
   {
-    StringBuilder   sb = new StringBuilder();
-    int             baseOffset = get(0).utcOffset;
-    int             nominalStdOffset = 0;
-    int             nominalDstOffset = 0;
-    TzRule          finalStdRule = null;
-    TzRule          finalDstRule = null;
+    public int      stdOffset;
+    public int      dstOffset;
+    public TzRule   stdRule;
+    public TzRule   dstRule;
+
+    public boolean hasRules()
+    {
+      return (stdRule != null && dstRule != null);
+    }
+  }
+
+  public TailRules findTailRules()
+  {
+    TailRules   tail = new TailRules();
+    int         nominalStdOffset = 0;
+    int         nominalDstOffset = 0;
+    TzRule      finalStdRule = null;
+    TzRule      finalDstRule = null;
 
     if (fromJava) {
       ZoneRules   zone = ZoneRulesProvider.getRules(zoneId, true);
@@ -509,32 +603,83 @@ public class TzTransitionList extends ArrayList<TzTransition>
       }
     }
 
-    sb.append(formatOffsetNotation(baseOffset)).append(' ').append(formatOffsetNotation(nominalStdOffset))
-      .append(' ').append(nominalDstOffset / 60).append(';');
+    tail.stdOffset = nominalStdOffset;
+    tail.dstOffset = nominalDstOffset;
+    tail.stdRule = finalStdRule;
+    tail.dstRule = finalDstRule;
 
-    List<String>  uniqueOffsetList = new ArrayList<>();
-    List<String>  offsetList = new ArrayList<>();
+    return tail;
+  }
 
-    for (TzTransition t : this) {
-      String  offset = toBase60(t.utcOffset / 60.0) + "/" + toBase60(t.dstOffset / 60.0);
+  /**
+   * The distinct combinations of UTC offset, DST offset, and name used by a transition list, in order of first
+   * use, along with the index of the entry used by each transition.
+   */
+  public static class OffsetDictionary
+  {
+    public List<String>   offsets = new ArrayList<>(); // In compact base-60 notation
+    public List<Integer>  utcOffsets = new ArrayList<>();
+    public List<Integer>  dstOffsets = new ArrayList<>();
+    public int[]          indices;
+  }
+
+  public OffsetDictionary createOffsetDictionary()
+  {
+    OffsetDictionary      dictionary = new OffsetDictionary();
+    Map<String, Integer>  offsetIndices = new HashMap<>();
+
+    dictionary.indices = new int[size()];
+
+    for (int i = 0; i < size(); ++i) {
+      TzTransition  t = get(i);
+      String        offset = toBase60(t.utcOffset / 60.0) + "/" + toBase60(t.dstOffset / 60.0);
 
       if (t.name != null && t.name.length() != 0)
         offset += "/" + t.name;
 
-      if (!uniqueOffsetList.contains(offset))
-        uniqueOffsetList.add(offset);
+      Integer   index = offsetIndices.get(offset);
 
-      offsetList.add(offset);
+      if (index == null) {
+        index = dictionary.offsets.size();
+        offsetIndices.put(offset, index);
+        dictionary.offsets.add(offset);
+        dictionary.utcOffsets.add(t.utcOffset);
+        dictionary.dstOffsets.add(t.dstOffset);
+      }
+
+      dictionary.indices[i] = index;
     }
 
-    for (String offset : uniqueOffsetList)
+    return dictionary;
+  }
+
+  // The format produced here borrows some key ideas, like the use of base-60 numbers, from the moment.js timezone package.
+  // https://momentjs.com/timezone/
+  //
+  // Though somewhat similar in appearance, the format is not compatible.
+  public String createCompactTransitionTable(boolean fixCalendarRollbacks)
+  {
+    StringBuilder   sb = new StringBuilder();
+    int             baseOffset = get(0).utcOffset;
+    TailRules       tail = findTailRules();
+    int             nominalStdOffset = tail.stdOffset;
+    int             nominalDstOffset = tail.dstOffset;
+    TzRule          finalStdRule = tail.stdRule;
+    TzRule          finalDstRule = tail.dstRule;
+
+    sb.append(formatOffsetNotation(baseOffset)).append(' ').append(formatOffsetNotation(nominalStdOffset))
+      .append(' ').append(nominalDstOffset / 60).append(';');
+
+    OffsetDictionary  dictionary = createOffsetDictionary();
+
+    for (String offset : dictionary.offsets)
       sb.append(offset).append(' ');
 
     sb.setLength(sb.length() - 1);
     sb.append(';');
 
     for (int i = 1; i < size(); ++i)
-      sb.append(toBase60(uniqueOffsetList.indexOf(offsetList.get(i))));
+      sb.append(toBase60(dictionary.indices[i]));
 
     sb.append(';');
 
@@ -569,6 +714,16 @@ public class TzTransitionList extends ArrayList<TzTransition>
           turnbackTime += aheadRule.save;
 
         if (turnbackTime > 0 && turnbackTime - fallBackAmount < 0) {
+          // Adjust a copy, as rules are shared by every zone (and every compilation) which uses them.
+          TzRule  original = fallBackRule;
+
+          fallBackRule = (TzRule) original.clone();
+
+          if (original == finalStdRule)
+            finalStdRule = fallBackRule;
+          else
+            finalDstRule = fallBackRule;
+
           fallBackRule.atMinute -= turnbackTime;
 
           while (fallBackRule.atMinute < 0) {
@@ -587,6 +742,196 @@ public class TzTransitionList extends ArrayList<TzTransition>
     return sb.toString();
   }
 
+  /**
+   * Create an index of where each year's transitions begin, so that a client can find the transition in
+   * effect at a given time by looking up the year, then scanning forward through at most a few transitions.
+   * <p>
+   * The index is minYear, in decimal, followed by a space, then the base-60 index of the first transition at or
+   * after the start of minYear (UTC), followed by a space, then one base-60 digit per year from minYear through
+   * maxYear giving the number of transitions which occur in that year. minYear is included because JSON output
+   * has no comment from which a client could recover the year range.
+   * @return The year index, or null if there are no transitions, or if any year has too many transitions
+   *         to encode as a single digit.
+   */
+  public String createYearIndex(int minYear, int maxYear)
+  {
+    if (size() < 2)
+      return null;
+
+    int[]   counts = new int[maxYear - minYear + 1];
+    int     first = size();
+
+    for (int i = 1; i < size(); ++i) {
+      int   year = LocalDateTime.ofEpochSecond(get(i).time, 0, ZoneOffset.UTC).getYear();
+
+      if (year >= minYear && first == size())
+        first = i;
+
+      if (minYear <= year && year <= maxYear && ++counts[year - minYear] >= 60)
+        return null;
+    }
+
+    StringBuilder   sb = new StringBuilder();
+
+    sb.append(minYear).append(' ').append(toBase60(first)).append(' ');
+
+    for (int count : counts)
+      sb.append(toBase60(count));
+
+    return sb.toString();
+  }
+
+  /**
+   * Find the earliest point after which this zone's explicit transitions are exactly what the tail rules of
+   * the given compact table generate, as clients generate them (see expandCompactZoneTable()), and drop the
+   * explicit transitions after that point, both from this list and from the table. The year of the first
+   * dropped transition is added to the table's tail rule section, after the two rules.
+   * <p>
+   * Each transition a client generates from the tail rules depends only on its year, so the rule-generated
+   * transitions are computed once, and explicit transitions are matched against them working backward from the
+   * end of the table, stopping at the first one which doesn't match.
+   * @param compactTable Compact table created from this list.
+   * @return The shortened compact table, or the original table if no transitions can be removed.
+   */
+  public String cutToTailRules(String compactTable)
+  {
+    String[]  sections = compactTable.split(";", -1);
+
+    if (sections.length < 5 || sections[4].isEmpty())
+      return compactTable;
+
+    TzTransitionList  original = parseCompactZoneTable(compactTable);
+    int               count = original.size();
+
+    if (count < 3 || size() != count)
+      return compactTable;
+
+    String[]  parts = sections[0].split(" ");
+    int       stdOffset = parseOffsetNotation(parts[1]);
+    int       dstOffset = to_int(parts[2]) * 60;
+    String[]  rules = sections[4].split(",");
+    TzRule    stdRule = TzRule.parseCompactTailRule(rules[0]);
+    TzRule    dstRule = TzRule.parseCompactTailRule(rules[1]);
+    int[]     years = new int[count];
+    String[]  lastStdNames = new String[count];
+    String[]  lastDstNames = new String[count];
+
+    // Names given to rule-generated transitions are the last explicit standard time and DST names.
+    for (int i = 1; i < count; ++i) {
+      TzTransition  tzt = original.get(i);
+
+      years[i] = LocalDateTime.ofEpochSecond(tzt.time, 0, ZoneOffset.UTC).getYear();
+      lastStdNames[i] = (tzt.dstOffset == 0 ? tzt.name : lastStdNames[i - 1]);
+      lastDstNames[i] = (tzt.dstOffset != 0 ? tzt.name : lastDstNames[i - 1]);
+    }
+
+    // Every transition the tail rules would generate, for any cut point, in the order clients generate them.
+    int               throughYear = years[count - 1] + 1;
+    List<long[]>      generated = new ArrayList<>();
+
+    for (int year = years[1] - 1; year <= throughYear; ++year) {
+      long  stdTime = stdRule.getTransitionTime(year, stdOffset, dstOffset);
+      long  dstTime = dstRule.getTransitionTime(year, stdOffset, 0);
+
+      for (int half = 0; half < 2; ++half) {
+        boolean   useDstRule = (half == 0 ? dstTime < stdTime : dstTime > stdTime);
+        TzRule    rule = (useDstRule ? dstRule : stdRule);
+        long      time = (useDstRule ? dstTime : stdTime);
+
+        if (year < rule.startYear)
+          continue;
+
+        // Generated times must increase, so that the transitions a client keeps for any cut point are a suffix.
+        if (!generated.isEmpty() && generated.get(generated.size() - 1)[0] >= time)
+          return compactTable;
+
+        generated.add(new long[] {time, year, rule.save});
+      }
+    }
+
+    // Index of the rule-generated transition which must match explicit transition i is i + shift.
+    int   shift = firstGenerated(generated, original.get(count - 1).time, years[count - 1]) - count;
+    int   keep = count - 1;
+
+    for (int k = count - 2; k > 0; --k) {
+      TzTransition  tzt = original.get(k + 1);
+      int           g = k + 1 + shift;
+
+      if (g < 0 || generated.get(g)[0] != tzt.time || tzt.utcOffset != stdOffset + generated.get(g)[2] ||
+          tzt.dstOffset != generated.get(g)[2] ||
+          !equal(tzt.name, tzt.dstOffset != 0 ? lastDstNames[count - 1] : lastStdNames[count - 1]) ||
+          !equal(lastStdNames[k], lastStdNames[count - 1]) || !equal(lastDstNames[k], lastDstNames[count - 1]) ||
+          firstGenerated(generated, original.get(k).time, years[k]) != g)
+        break;
+
+      keep = k;
+    }
+
+    if (keep == count - 1)
+      return compactTable;
+
+    tailRuleCutYear = years[keep + 1];
+    removeRange(keep + 1, count);
+
+    StringBuilder   sb = new StringBuilder();
+    String[]        times = sections[3].split(" ");
+
+    sb.append(sections[0]).append(';').append(sections[1]).append(';').append(sections[2], 0, keep).append(';');
+    sb.append(String.join(" ", Arrays.asList(times).subList(0, keep)));
+    sb.append(';').append(sections[4]).append(',').append(tailRuleCutYear);
+
+    for (int i = 5; i < sections.length; ++i)
+      sb.append(';').append(sections[i]);
+
+    return sb.toString();
+  }
+
+  /**
+   * @return Index of the first rule-generated transition a client keeps after an explicit transition at the given
+   *         time and (UTC) year.
+   */
+  private static int firstGenerated(List<long[]> generated, long lastTime, int lastYear)
+  {
+    int   low = 0;
+    int   high = generated.size();
+
+    while (low < high) {
+      int     mid = (low + high) >>> 1;
+      long[]  g = generated.get(mid);
+
+      if (g[0] > lastTime + TAIL_RULE_GAP && g[1] >= lastYear - 1)
+        high = mid;
+      else
+        low = mid + 1;
+    }
+
+    return low;
+  }
+
+  /**
+   * @return The year of the first explicit transition removed by cutToTailRules(), or 0 if none were removed.
+   */
+  public int getTailRuleCutYear()
+  {
+    return tailRuleCutYear;
+  }
+
+  private static boolean sameTransitions(List<TzTransition> list1, List<TzTransition> list2)
+  {
+    if (list1.size() != list2.size())
+      return false;
+
+    for (int i = 0; i < list1.size(); ++i) {
+      TzTransition  t1 = list1.get(i);
+      TzTransition  t2 = list2.get(i);
+
+      if (t1.time != t2.time || t1.utcOffset != t2.utcOffset || t1.dstOffset != t2.dstOffset || !equal(t1.name, t2.name))
+        return false;
+    }
+
+    return true;
+  }
+
   private List<TzTransition> cloneTransitions()
   {
     List<TzTransition>  copy = new ArrayList<>(size());
@@ -0,0 +1,345 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.time.*;
+import java.util.*;
+
+import static java.lang.Math.*;
+import static org.shetline.timezones.TzUtil.*;
+
+
+/**
+ * Delivers every transition of a set of compiled time zones within a span of time, in strict chronological order
+ * across all zones (ties are broken by zone index). Explicit transitions come from each zone's compiled transition
+ * list. Zones which still observe DST then continue with transitions generated, as needed, from their tail rules.
+ * <p>
+ * Zones are merged using a binary heap of zone indices. Once a pass has been set up, no objects are created
+ * while events are being delivered.
+ */
+public class TzTransitionStream
+{
+  // Same gap clients use to avoid duplicating the last explicit transition with a rule-generated transition.
+  private static final long   TAIL_RULE_GAP = 86400 * 2;
+
+  public interface Visitor
+  {
+    /**
+     * @return true to continue, false to end the stream early.
+     */
+    boolean visit(int zoneIndex, long time, int utcOffset, int dstOffset, String name);
+  }
+
+  private final String[]              zoneIds;
+  private final TzTransitionBlock[]   blocks;
+  private final TzRule[]              stdRules;
+  private final TzRule[]              dstRules;
+  private final int[]                 stdOffsets;
+  private final int[]                 dstOffsets;
+  private final String[]              stdNames;
+  private final String[]              dstNames;
+  private final int[]                 tailStartYears;
+
+  public TzTransitionStream(Map<String, TzTransitionList> compiledZones)
+  {
+    int   count = compiledZones.size();
+
+    zoneIds = compiledZones.keySet().toArray(new String[0]);
+    Arrays.sort(zoneIds);
+    blocks = new TzTransitionBlock[count];
+    stdRules = new TzRule[count];
+    dstRules = new TzRule[count];
+    stdOffsets = new int[count];
+    dstOffsets = new int[count];
+    stdNames = new String[count];
+    dstNames = new String[count];
+    tailStartYears = new int[count];
+
+    for (int z = 0; z < count; ++z) {
+      TzTransitionList  transitions = compiledZones.get(zoneIds[z]);
+      TzTransitionBlock block = TzTransitionBlock.fromTransitionList(transitions);
+
+      blocks[z] = block;
+
+      if (block.size() < 2)
+        continue;
+
+      TzTransitionList.TailRules  tail = transitions.findTailRules();
+
+      if (!tail.hasRules())
+        continue;
+
+      stdRules[z] = tail.stdRule;
+      dstRules[z] = tail.dstRule;
+      stdOffsets[z] = tail.stdOffset;
+      dstOffsets[z] = tail.dstOffset;
+
+      for (int i = block.size() - 1; i >= 0 && (stdNames[z] == null || dstNames[z] == null); --i) {
+        if (block.getDstOffset(i) == 0 && stdNames[z] == null)
+          stdNames[z] = block.getName(i);
+        else if (block.getDstOffset(i) != 0 && dstNames[z] == null)
+          dstNames[z] = block.getName(i);
+      }
+
+      tailStartYears[z] = yearOf(block.getTime(block.size() - 1)) - 1;
+    }
+  }
+
+  private static int yearOf(long epochSecond)
+  {
+    return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC).getYear();
+  }
+
+  public int getZoneCount()
+  {
+    return zoneIds.length;
+  }
+
+  public String getZoneId(int zoneIndex)
+  {
+    return zoneIds[zoneIndex];
+  }
+
+  public int getZoneIndex(String zoneId)
+  {
+    int   index = Arrays.binarySearch(zoneIds, zoneId);
+
+    return (index < 0 ? -1 : index);
+  }
+
+  public void forEach(long startTime, long endTime, Visitor visitor)
+  {
+    Cursor  cursor = cursor(startTime, endTime);
+
+    while (cursor.next()) {
+      if (!visitor.visit(cursor.zoneIndex, cursor.time, cursor.utcOffset, cursor.dstOffset, cursor.name))
+        break;
+    }
+  }
+
+  /**
+   * @param startTime Earliest transition time to include, in seconds from epoch.
+   * @param endTime Latest transition time to include, in seconds from epoch.
+   * @return A cursor positioned before the first transition in the given range.
+   */
+  public Cursor cursor(long startTime, long endTime)
+  {
+    return new Cursor(startTime, endTime);
+  }
+
+  public class Cursor
+  {
+    private final long      startTime;
+    private final long      endTime;
+    private final int[]     heap;
+    private int             heapSize = 0;
+    private final long[]    nextTimes;
+    private final int[]     nextUtcOffsets;
+    private final int[]     nextDstOffsets;
+    private final String[]  nextNames;
+    private final int[]     positions;
+    private final int[]     tailYears;
+    private final boolean[] tailSecondHalf;
+
+    private int     zoneIndex = -1;
+    private long    time;
+    private int     utcOffset;
+    private int     dstOffset;
+    private String  name;
+
+    private Cursor(long startTime, long endTime)
+    {
+      int   count = zoneIds.length;
+      int   startYear = (startTime > MIN_JS_SAFE_INTEGER && startTime < MAX_JS_SAFE_INTEGER ? yearOf(startTime) - 1 : Integer.MIN_VALUE);
+
+      this.startTime = startTime;
+      this.endTime = endTime;
+      heap = new int[count];
+      nextTimes = new long[count];
+      nextUtcOffsets = new int[count];
+      nextDstOffsets = new int[count];
+      nextNames = new String[count];
+      positions = new int[count];
+      tailYears = new int[count];
+      tailSecondHalf = new boolean[count];
+
+      for (int z = 0; z < count; ++z) {
+        TzTransitionBlock   block = blocks[z];
+        int                 pos = block.findTransitionIndex(startTime);
+
+        // The first entry only establishes the initial offset, it isn't an actual transition.
+        if (pos == 0 || block.getTime(pos) < startTime)
+          ++pos;
+
+        positions[z] = pos;
+        tailYears[z] = max(tailStartYears[z], startYear);
+
+        if (findNext(z))
+          heap[heapSize++] = z;
+      }
+
+      for (int i = heapSize / 2 - 1; i >= 0; --i)
+        siftDown(i);
+    }
+
+    /**
+     * Move to the next transition.
+     * @return false if there are no more transitions in range.
+     */
+    public boolean next()
+    {
+      if (zoneIndex >= 0) {
+        if (findNext(zoneIndex))
+          siftDown(0);
+        else if (--heapSize > 0) {
+          heap[0] = heap[heapSize];
+          siftDown(0);
+        }
+      }
+
+      if (heapSize == 0) {
+        zoneIndex = -1;
+        return false;
+      }
+
+      zoneIndex = heap[0];
+      time = nextTimes[zoneIndex];
+      utcOffset = nextUtcOffsets[zoneIndex];
+      dstOffset = nextDstOffsets[zoneIndex];
+      name = nextNames[zoneIndex];
+
+      return true;
+    }
+
+    public int getZoneIndex()
+    {
+      return zoneIndex;
+    }
+
+    public String getZoneId()
+    {
+      return zoneIds[zoneIndex];
+    }
+
+    public long getTime()
+    {
+      return time;
+    }
+
+    public int getUtcOffset()
+    {
+      return utcOffset;
+    }
+
+    public int getDstOffset()
+    {
+      return dstOffset;
+    }
+
+    public String getName()
+    {
+      return name;
+    }
+
+    private boolean findNext(int z)
+    {
+      TzTransitionBlock   block = blocks[z];
+      int                 pos = positions[z];
+
+      if (pos < block.size()) {
+        long  t = block.getTime(pos);
+
+        if (t > endTime)
+          return false;
+
+        nextTimes[z] = t;
+        nextUtcOffsets[z] = block.getUtcOffset(pos);
+        nextDstOffsets[z] = block.getDstOffset(pos);
+        nextNames[z] = block.getName(pos);
+        positions[z] = pos + 1;
+
+        return true;
+      }
+
+      TzRule  stdRule = stdRules[z];
+      TzRule  dstRule = dstRules[z];
+
+      if (stdRule == null)
+        return false;
+
+      long  lastExplicitTime = block.getTime(block.size() - 1);
+
+      while (true) {
+        int       year = tailYears[z];
+        long      stdTime = stdRule.getTransitionTime(year, stdOffsets[z], dstOffsets[z]);
+        long      dstTime = dstRule.getTransitionTime(year, stdOffsets[z], 0);
+        boolean   secondHalf = tailSecondHalf[z];
+        boolean   useDstRule = (secondHalf == (stdTime < dstTime));
+        TzRule    rule = (useDstRule ? dstRule : stdRule);
+        long      t = (useDstRule ? dstTime : stdTime);
+
+        if (secondHalf)
+          ++tailYears[z];
+
+        tailSecondHalf[z] = !secondHalf;
+
+        if (t > endTime && secondHalf)
+          return false;
+        else if (t > endTime || t < startTime || t <= lastExplicitTime + TAIL_RULE_GAP || year < rule.startYear)
+          continue;
+
+        nextTimes[z] = t;
+        nextUtcOffsets[z] = stdOffsets[z] + rule.save;
+        nextDstOffsets[z] = rule.save;
+        nextNames[z] = (rule.save != 0 ? dstNames[z] : stdNames[z]);
+
+        return true;
+      }
+    }
+
+    private boolean precedes(int z1, int z2)
+    {
+      return nextTimes[z1] < nextTimes[z2] || (nextTimes[z1] == nextTimes[z2] && z1 < z2);
+    }
+
+    private void siftDown(int i)
+    {
+      int   z = heap[i];
+
+      while (true) {
+        int   child = i * 2 + 1;
+
+        if (child >= heapSize)
+          break;
+
+        if (child + 1 < heapSize && precedes(heap[child + 1], heap[child]))
+          ++child;
+
+        if (!precedes(heap[child], z))
+          break;
+
+        heap[i] = heap[child];
+        i = child;
+      }
+
+      heap[i] = z;
+    }
+  }
+}
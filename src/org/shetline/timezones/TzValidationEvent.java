@@ -0,0 +1,61 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import jdk.jfr.*;
+
+
+/**
+ * JDK Flight Recorder event for validating a compiled time zone against zoneinfo (zic) output or java.time.
+ */
+@Name("org.shetline.timezones.Validate")
+@Label("Time Zone Validation")
+@Category({"Time Zones", "Compiler"})
+@StackTrace(false)
+public final class TzValidationEvent extends Event
+{
+  @Label("Zone ID")
+  public String   zoneId;
+
+  @Label("Reference")
+  @Description("Source of the transitions compared against, \"zoneinfo\" or \"java.time\"")
+  public String   reference;
+
+  @Label("Matched")
+  public boolean  matched;
+
+  /**
+   * End the event, committing it if it is being recorded.
+   * @return The validation outcome, passed through unchanged.
+   */
+  public boolean finish(String zoneId, String reference, boolean matched)
+  {
+    end();
+
+    if (shouldCommit()) {
+      this.zoneId = zoneId;
+      this.reference = reference;
+      this.matched = matched;
+      commit();
+    }
+
+    return matched;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Holds compiled time zones for any number of tz database versions at once. Zones whose transitions are identical,
+ * whether across versions or between a zone and its aliases, share a single TzTransitionBlock.
+ */
+public class TzVersionedZoneStore
+{
+  private final Map<TzTransitionBlock, TzTransitionBlock>       sharedBlocks = new HashMap<>();
+  private final Map<String, Map<String, TzTransitionBlock>>     zonesByVersion = new ConcurrentHashMap<>();
+
+  public String addArchive(File archive, int minYear, int maxYear, boolean roundToMinutes) throws IOException, IanaParserException
+  {
+    IanaZonesAndRulesParser   parser = new IanaZonesAndRulesParser(roundToMinutes, false);
+    String                    version = parser.parseArchive(archive, false);
+
+    addVersion(version, new TzCompiler(parser).compileAll(minYear, maxYear));
+
+    return version;
+  }
+
+  /**
+   * Add (or replace) a version. Adding and removing versions is serialized, so that the shared blocks always
+   * match the versions held, while lookups proceed without locking.
+   */
+  public void addVersion(String version, Map<String, TzTransitionList> compiledZones)
+  {
+    if (version == null)
+      throw new IllegalArgumentException("tz database version must not be null");
+
+    Map<String, TzTransitionBlock>  zones = new HashMap<>();
+
+    synchronized (sharedBlocks) {
+      for (Map.Entry<String, TzTransitionList> entry : compiledZones.entrySet()) {
+        TzTransitionBlock   block = TzTransitionBlock.fromTransitionList(entry.getValue());
+        TzTransitionBlock   shared = sharedBlocks.putIfAbsent(block, block);
+
+        zones.put(entry.getKey(), shared != null ? shared : block);
+      }
+
+      if (zonesByVersion.put(version, Collections.unmodifiableMap(zones)) != null)
+        removeUnusedBlocks();
+    }
+  }
+
+  public void removeVersion(String version)
+  {
+    if (version == null)
+      return;
+
+    synchronized (sharedBlocks) {
+      if (zonesByVersion.remove(version) != null)
+        removeUnusedBlocks();
+    }
+  }
+
+  private void removeUnusedBlocks()
+  {
+    Set<TzTransitionBlock>  inUse = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    for (Map<String, TzTransitionBlock> zones : zonesByVersion.values())
+      inUse.addAll(zones.values());
+
+    sharedBlocks.keySet().removeIf(block -> !inUse.contains(block));
+  }
+
+  public Set<String> getVersions()
+  {
+    return Collections.unmodifiableSet(zonesByVersion.keySet());
+  }
+
+  public Set<String> getZoneIds(String version)
+  {
+    Map<String, TzTransitionBlock>  zones = getZones(version);
+
+    return (zones == null ? null : zones.keySet());
+  }
+
+  public TzTransitionBlock getZone(String version, String zoneId)
+  {
+    Map<String, TzTransitionBlock>  zones = getZones(version);
+
+    return (zones == null ? null : zones.get(zoneId));
+  }
+
+  public int getUtcOffset(String version, String zoneId, long epochSecond)
+  {
+    return getKnownZone(version, zoneId).getUtcOffsetAt(epochSecond);
+  }
+
+  public int getDstOffset(String version, String zoneId, long epochSecond)
+  {
+    return getKnownZone(version, zoneId).getDstOffsetAt(epochSecond);
+  }
+
+  public int getSharedBlockCount()
+  {
+    synchronized (sharedBlocks) {
+      return sharedBlocks.size();
+    }
+  }
+
+  private Map<String, TzTransitionBlock> getZones(String version)
+  {
+    return (version == null ? null : zonesByVersion.get(version));
+  }
+
+  private TzTransitionBlock getKnownZone(String version, String zoneId)
+  {
+    Map<String, TzTransitionBlock>  zones = getZones(version);
+
+    if (zones == null)
+      throw new IllegalArgumentException("Unknown tz database version: " + version);
+
+    TzTransitionBlock   block = zones.get(zoneId);
+
+    if (block == null)
+      throw new IllegalArgumentException("Unknown time zone: " + zoneId + " (version " + version + ")");
+
+    return block;
+  }
+}
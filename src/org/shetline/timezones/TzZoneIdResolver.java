@@ -0,0 +1,351 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+/**
+ * Resolves time zone IDs and aliases to canonical zone indices using a minimal perfect hash (hash and displace),
+ * with aliases flattened so that every name leads directly to a canonical zone. Lookups by String or by UTF-8
+ * bytes create no objects.
+ * <p>
+ * The resolver can be saved in a small binary file by the generator and loaded at run time with read().
+ */
+public class TzZoneIdResolver
+{
+  private static final int    MAGIC = 0x545A4948; // "TZIH"
+  private static final long   FNV_OFFSET = 0xCBF29CE484222325L;
+  private static final long   FNV_PRIME = 0x100000001B3L;
+  private static final long   DISPLACEMENT_STEP = 0x9E3779B97F4A7C15L;
+  private static final int    KEYS_PER_BUCKET = 4;
+
+  private final String[]  canonicalIds;
+  private final int[]     displacements;
+  private final String[]  slotNames;
+  private final byte[][]  slotBytes;
+  private final int[]     slotZones;
+
+  /**
+   * @param canonicalIds Zone IDs with their own definitions. Zone indices follow the order of this list.
+   * @param aliases Map of alias to original zone ID. Aliases of aliases are followed to the canonical zone.
+   */
+  public TzZoneIdResolver(List<String> canonicalIds, Map<String, String> aliases)
+  {
+    Map<String, Integer>  indices = new HashMap<>();
+
+    this.canonicalIds = canonicalIds.toArray(new String[0]);
+
+    for (int i = 0; i < this.canonicalIds.length; ++i)
+      indices.put(this.canonicalIds[i], i);
+
+    List<String>  names = new ArrayList<>(Arrays.asList(this.canonicalIds));
+    List<Integer> zones = new ArrayList<>();
+
+    for (int i = 0; i < this.canonicalIds.length; ++i)
+      zones.add(i);
+
+    for (String alias : aliases.keySet()) {
+      if (indices.containsKey(alias))
+        continue;
+
+      String  original = aliases.get(alias);
+      String  next;
+      int     limit = aliases.size();
+
+      while ((next = aliases.get(original)) != null && --limit > 0)
+        original = next;
+
+      Integer   zoneIndex = indices.get(original);
+
+      if (zoneIndex == null)
+        throw new IllegalArgumentException(alias + " is mapped to unknown time zone " + original);
+
+      names.add(alias);
+      zones.add(zoneIndex);
+    }
+
+    int       n = names.size();
+    int       bucketCount = Math.max((n + KEYS_PER_BUCKET - 1) / KEYS_PER_BUCKET, 1);
+    long[]    hashes = new long[n];
+
+    List<List<Integer>>  buckets = new ArrayList<>(bucketCount);
+
+    for (int b = 0; b < bucketCount; ++b)
+      buckets.add(new ArrayList<>());
+
+    for (int i = 0; i < n; ++i) {
+      hashes[i] = hash(names.get(i));
+      buckets.get(bucket(hashes[i], bucketCount)).add(i);
+    }
+
+    Integer[]   order = new Integer[bucketCount];
+
+    for (int b = 0; b < bucketCount; ++b)
+      order[b] = b;
+
+    // Place the largest buckets first, while there's the most freedom to find free slots.
+    Arrays.sort(order, (b1, b2) -> buckets.get(b2).size() - buckets.get(b1).size());
+
+    displacements = new int[bucketCount];
+    slotNames = new String[n];
+    slotBytes = new byte[n][];
+    slotZones = new int[n];
+
+    boolean[]   taken = new boolean[n];
+    int[]       trial = new int[KEYS_PER_BUCKET * 8];
+
+    for (int b : order) {
+      List<Integer>   keys = buckets.get(b);
+
+      if (keys.isEmpty())
+        continue;
+
+      if (trial.length < keys.size())
+        trial = new int[keys.size()];
+
+      for (int d = 0;; ++d) {
+        boolean   fits = true;
+
+        for (int k = 0; k < keys.size() && fits; ++k) {
+          int   s = slot(hashes[keys.get(k)], d, n);
+
+          for (int j = 0; j < k && fits; ++j)
+            fits = (trial[j] != s);
+
+          fits &= !taken[s];
+          trial[k] = s;
+        }
+
+        if (fits) {
+          displacements[b] = d;
+
+          for (int k = 0; k < keys.size(); ++k) {
+            int   s = trial[k];
+            int   key = keys.get(k);
+
+            taken[s] = true;
+            slotNames[s] = names.get(key);
+            slotBytes[s] = names.get(key).getBytes(StandardCharsets.UTF_8);
+            slotZones[s] = zones.get(key);
+          }
+
+          break;
+        }
+      }
+    }
+  }
+
+  private TzZoneIdResolver(String[] canonicalIds, int[] displacements, String[] slotNames, int[] slotZones)
+  {
+    this.canonicalIds = canonicalIds;
+    this.displacements = displacements;
+    this.slotNames = slotNames;
+    this.slotZones = slotZones;
+    slotBytes = new byte[slotNames.length][];
+
+    for (int i = 0; i < slotNames.length; ++i)
+      slotBytes[i] = slotNames[i].getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static long mix(long h)
+  {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+
+    return h;
+  }
+
+  private static int bucket(long hash, int bucketCount)
+  {
+    return (int) Long.remainderUnsigned(hash, bucketCount);
+  }
+
+  private static int slot(long hash, int displacement, int slotCount)
+  {
+    return (int) Long.remainderUnsigned(mix(hash + displacement * DISPLACEMENT_STEP), slotCount);
+  }
+
+  // FNV-1a over the UTF-8 encoding of the string, without creating a byte array.
+  private static long hash(String s)
+  {
+    long  h = FNV_OFFSET;
+
+    for (int i = 0; i < s.length(); ++i) {
+      int   c = s.charAt(i);
+
+      if (c < 0x80)
+        h = (h ^ c) * FNV_PRIME;
+      else if (c < 0x800) {
+        h = (h ^ (0xC0 | (c >> 6))) * FNV_PRIME;
+        h = (h ^ (0x80 | (c & 0x3F))) * FNV_PRIME;
+      }
+      else if (Character.isHighSurrogate((char) c) && i + 1 < s.length()) {
+        int   cp = Character.toCodePoint((char) c, s.charAt(++i));
+
+        h = (h ^ (0xF0 | (cp >> 18))) * FNV_PRIME;
+        h = (h ^ (0x80 | ((cp >> 12) & 0x3F))) * FNV_PRIME;
+        h = (h ^ (0x80 | ((cp >> 6) & 0x3F))) * FNV_PRIME;
+        h = (h ^ (0x80 | (cp & 0x3F))) * FNV_PRIME;
+      }
+      else {
+        h = (h ^ (0xE0 | (c >> 12))) * FNV_PRIME;
+        h = (h ^ (0x80 | ((c >> 6) & 0x3F))) * FNV_PRIME;
+        h = (h ^ (0x80 | (c & 0x3F))) * FNV_PRIME;
+      }
+    }
+
+    return mix(h);
+  }
+
+  private static long hash(byte[] utf8, int offset, int length)
+  {
+    long  h = FNV_OFFSET;
+
+    for (int i = offset; i < offset + length; ++i)
+      h = (h ^ (utf8[i] & 0xFF)) * FNV_PRIME;
+
+    return mix(h);
+  }
+
+  private int findSlot(long hash)
+  {
+    int   n = slotNames.length;
+
+    return (n == 0 ? -1 : slot(hash, displacements[bucket(hash, displacements.length)], n));
+  }
+
+  /**
+   * @param zoneId Time zone ID or alias.
+   * @return Canonical zone index, or -1 if the name is unknown.
+   */
+  public int resolve(String zoneId)
+  {
+    int   s = findSlot(hash(zoneId));
+
+    return (s >= 0 && slotNames[s].equals(zoneId) ? slotZones[s] : -1);
+  }
+
+  /**
+   * @param utf8 Buffer holding a time zone ID or alias, encoded as UTF-8.
+   * @param offset Start of the name in the buffer.
+   * @param length Length of the name in bytes.
+   * @return Canonical zone index, or -1 if the name is unknown.
+   */
+  public int resolve(byte[] utf8, int offset, int length)
+  {
+    int   s = findSlot(hash(utf8, offset, length));
+
+    if (s < 0)
+      return -1;
+
+    byte[]  name = slotBytes[s];
+
+    if (name.length != length)
+      return -1;
+
+    for (int i = 0; i < length; ++i) {
+      if (name[i] != utf8[offset + i])
+        return -1;
+    }
+
+    return slotZones[s];
+  }
+
+  public String resolveToCanonicalId(String zoneId)
+  {
+    int   index = resolve(zoneId);
+
+    return (index < 0 ? null : canonicalIds[index]);
+  }
+
+  public String getCanonicalId(int zoneIndex)
+  {
+    return canonicalIds[zoneIndex];
+  }
+
+  public int getCanonicalCount()
+  {
+    return canonicalIds.length;
+  }
+
+  public int getNameCount()
+  {
+    return slotNames.length;
+  }
+
+  public void write(OutputStream out) throws IOException
+  {
+    DataOutputStream  dataOut = new DataOutputStream(new BufferedOutputStream(out));
+
+    dataOut.writeInt(MAGIC);
+    dataOut.writeInt(canonicalIds.length);
+
+    for (String id : canonicalIds)
+      dataOut.writeUTF(id);
+
+    dataOut.writeInt(displacements.length);
+
+    for (int d : displacements)
+      dataOut.writeInt(d);
+
+    dataOut.writeInt(slotNames.length);
+
+    for (int i = 0; i < slotNames.length; ++i) {
+      dataOut.writeUTF(slotNames[i]);
+      dataOut.writeInt(slotZones[i]);
+    }
+
+    dataOut.flush();
+  }
+
+  public static TzZoneIdResolver read(InputStream in) throws IOException
+  {
+    DataInputStream   dataIn = new DataInputStream(new BufferedInputStream(in));
+
+    if (dataIn.readInt() != MAGIC)
+      throw new IOException("Not a zone ID resolver table");
+
+    String[]  canonicalIds = new String[dataIn.readInt()];
+
+    for (int i = 0; i < canonicalIds.length; ++i)
+      canonicalIds[i] = dataIn.readUTF();
+
+    int[]   displacements = new int[dataIn.readInt()];
+
+    for (int i = 0; i < displacements.length; ++i)
+      displacements[i] = dataIn.readInt();
+
+    String[]  slotNames = new String[dataIn.readInt()];
+    int[]     slotZones = new int[slotNames.length];
+
+    for (int i = 0; i < slotNames.length; ++i) {
+      slotNames[i] = dataIn.readUTF();
+      slotZones[i] = dataIn.readInt();
+    }
+
+    return new TzZoneIdResolver(canonicalIds, displacements, slotNames, slotZones);
+  }
+}
@@ -0,0 +1,210 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.shetline.timezones.TzPopulationAndCountry.getPopulation;
+import static org.shetline.timezones.TzUtil.equal;
+
+
+/**
+ * Finds zones which keep exactly the same time as one another from the start of a given year onward, even though
+ * their earlier histories differ, so that all but the most populous zone of each such set can be output as aliases.
+ * <p>
+ * Each zone gets an array of suffix fingerprints, where the fingerprint at index i covers transition i, every
+ * transition after it, and the zone's tail rules. Zones are grouped by the fingerprint of the state in effect at
+ * the cutoff combined with the suffix that follows, and only zones within the same group are compared in full.
+ */
+public class TzZoneMerger
+{
+  private static final long   MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+  private final Map<String, String>   canonicalZones = new TreeMap<>();
+
+  private static class Suffix
+  {
+    private final String              zoneId;
+    private final TzTransitionBlock   block;
+    private final String              tail;
+    private final int                 start;
+    private final long                fingerprint;
+
+    private Suffix(String zoneId, TzTransitionBlock block, String tail, int start, long fingerprint)
+    {
+      this.zoneId = zoneId;
+      this.block = block;
+      this.tail = tail;
+      this.start = start;
+      this.fingerprint = fingerprint;
+    }
+
+    private boolean matches(Suffix other)
+    {
+      if (fingerprint != other.fingerprint || !tail.equals(other.tail) ||
+          block.size() - start != other.block.size() - other.start)
+        return false;
+
+      for (int i = start, j = other.start; i < block.size(); ++i, ++j) {
+        if (block.getUtcOffset(i) != other.block.getUtcOffset(j) ||
+            block.getDstOffset(i) != other.block.getDstOffset(j) ||
+            !equal(block.getName(i), other.block.getName(j)) ||
+            (i > start && block.getTime(i) != other.block.getTime(j)))
+          return false;
+      }
+
+      return true;
+    }
+  }
+
+  /**
+   * @param transitionsByZone Compiled transitions of unique zones.
+   * @param compactTablesByZone Compact tables of the same zones, supplying the tail rules clients will use.
+   * @param sinceYear Zones are merged if they match from the start of this year (UTC) onward.
+   */
+  public TzZoneMerger(Map<String, TzTransitionList> transitionsByZone, Map<String, String> compactTablesByZone,
+                      int sinceYear)
+  {
+    long                      cutoff = LocalDate.of(sinceYear, 1, 1).toEpochDay() * 86400;
+    Map<Long, List<Suffix>>   index = new HashMap<>();
+    List<String>              zoneIds = new ArrayList<>(transitionsByZone.keySet());
+
+    Collections.sort(zoneIds);
+
+    for (String zoneId : zoneIds) {
+      TzTransitionBlock   block = TzTransitionBlock.fromTransitionList(transitionsByZone.get(zoneId));
+      String              tail = getTail(compactTablesByZone.get(zoneId));
+      long[]              suffixes = getSuffixFingerprints(block, tail);
+      int                 start = block.findTransitionIndex(cutoff);
+      // The transition in effect at the cutoff counts only for its offsets and name, not its time.
+      long                fingerprint = mix(stateHash(block, start) * MULTIPLIER + suffixes[start + 1]);
+      Suffix              suffix = new Suffix(zoneId, block, tail, start, fingerprint);
+
+      index.computeIfAbsent(fingerprint, k -> new ArrayList<>()).add(suffix);
+    }
+
+    for (List<Suffix> group : index.values()) {
+      while (group.size() > 1) {
+        Suffix          first = group.remove(0);
+        List<Suffix>    same = new ArrayList<>();
+
+        same.add(first);
+
+        for (Iterator<Suffix> it = group.iterator(); it.hasNext();) {
+          Suffix  suffix = it.next();
+
+          if (first.matches(suffix)) {
+            same.add(suffix);
+            it.remove();
+          }
+        }
+
+        if (same.size() < 2)
+          continue;
+
+        Suffix  canonical = first;
+
+        for (Suffix suffix : same) {
+          if (getPopulation(suffix.zoneId) > getPopulation(canonical.zoneId))
+            canonical = suffix;
+        }
+
+        for (Suffix suffix : same) {
+          if (suffix != canonical)
+            canonicalZones.put(suffix.zoneId, canonical.zoneId);
+        }
+      }
+    }
+  }
+
+  // The parts of a compact table that determine transitions clients generate after the explicit ones.
+  private static String getTail(String table)
+  {
+    String[]  sections = table.split(";");
+    String[]  parts = sections[0].split(" ");
+
+    return parts[1] + " " + parts[2] + (sections.length > 4 ? ";" + sections[4] : "");
+  }
+
+  private static long[] getSuffixFingerprints(TzTransitionBlock block, String tail)
+  {
+    long[]  suffixes = new long[block.size() + 1];
+
+    suffixes[block.size()] = tail.hashCode();
+
+    for (int i = block.size() - 1; i >= 0; --i)
+      suffixes[i] = (suffixes[i + 1] * MULTIPLIER + block.getTime(i)) * MULTIPLIER + stateHash(block, i);
+
+    return suffixes;
+  }
+
+  private static long stateHash(TzTransitionBlock block, int i)
+  {
+    String  name = block.getName(i);
+
+    return ((long) block.getUtcOffset(i) * 31 + block.getDstOffset(i)) * 31 + (name == null ? 0 : name.hashCode());
+  }
+
+  private static long mix(long h)
+  {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+
+    return h;
+  }
+
+  /**
+   * @return Map of merged zone IDs to the IDs of the more populous zones they've been merged with.
+   */
+  public Map<String, String> getMerges()
+  {
+    return canonicalZones;
+  }
+
+  /**
+   * Update the generator's collections of zones, tables and aliases so that merged zones become aliases.
+   */
+  public void apply(List<String> uniqueZones, Map<String, String> compactTablesByZone,
+                    Map<String, TzTransitionList> transitionsByZone, Map<String, String> duplicates,
+                    List<String> duplicateZones, Map<String, TzTransitionList> duplicateTransitionsByZone)
+  {
+    for (Map.Entry<String, String> entry : duplicates.entrySet()) {
+      String  canonical = canonicalZones.get(entry.getValue());
+
+      if (canonical != null)
+        entry.setValue(canonical);
+    }
+
+    for (Map.Entry<String, String> entry : canonicalZones.entrySet()) {
+      String  zoneId = entry.getKey();
+
+      uniqueZones.remove(zoneId);
+      compactTablesByZone.remove(zoneId);
+      transitionsByZone.remove(zoneId);
+      duplicates.put(zoneId, entry.getValue());
+      duplicateZones.add(zoneId);
+      duplicateTransitionsByZone.put(zoneId, new TzTransitionList(zoneId));
+    }
+
+    Collections.sort(duplicateZones);
+  }
+}
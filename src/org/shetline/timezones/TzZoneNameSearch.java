@@ -0,0 +1,243 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.shetline.timezones.TzPopulationAndCountry.getPopulation;
+
+
+/**
+ * Prefix search over time zone names for autocompletion. The searchable names for each zone are the full zone ID,
+ * its region and locale (as split by CompactTimeZoneGenerator), each word of the locale, and the current standard
+ * and DST abbreviations. Names are folded to lower case, with underscores treated as spaces.
+ * <p>
+ * All names are kept in a single sorted table, so the names matching a prefix form one contiguous range found
+ * by binary search. Zones are numbered in order of descending population, so the top matches are simply the
+ * lowest distinct zone indices in that range.
+ */
+public class TzZoneNameSearch
+{
+  private static final String   ZONES_HEADER = "zones";
+  private static final String   NAMES_HEADER = "names";
+
+  private final String[]  zoneIds;
+  private final String[]  names;
+  private final int[]     nameZones;
+
+  public TzZoneNameSearch(Map<String, TzTransitionList> zones)
+  {
+    zoneIds = zones.keySet().toArray(new String[0]);
+    Arrays.sort(zoneIds, (z1, z2) -> {
+      int   result = Long.compare(getPopulation(z2), getPopulation(z1));
+
+      return (result != 0 ? result : z1.compareTo(z2));
+    });
+
+    SortedSet<String>   entries = new TreeSet<>();
+
+    for (int z = 0; z < zoneIds.length; ++z) {
+      Set<String>   zoneNames = new HashSet<>();
+      String        zoneId = zoneIds[z];
+      String[]      regionAndLocale = CompactTimeZoneGenerator.splitRegionAndLocale(zoneId);
+
+      zoneNames.add(zoneId);
+      zoneNames.add(regionAndLocale[0]);
+
+      if (regionAndLocale[1] != null) {
+        zoneNames.add(regionAndLocale[1]);
+        zoneNames.addAll(Arrays.asList(regionAndLocale[1].split("[/_ ]")));
+      }
+
+      TzTransitionList  transitions = zones.get(zoneId);
+      boolean           stdFound = false;
+      boolean           dstFound = false;
+
+      for (int i = (transitions == null ? -1 : transitions.size() - 1); i >= 0 && !(stdFound && dstFound); --i) {
+        TzTransition  tzt = transitions.get(i);
+
+        if (tzt.dstOffset == 0 && !stdFound) {
+          stdFound = true;
+
+          if (tzt.name != null)
+            zoneNames.add(tzt.name);
+        }
+        else if (tzt.dstOffset != 0 && !dstFound) {
+          dstFound = true;
+
+          if (tzt.name != null)
+            zoneNames.add(tzt.name);
+        }
+      }
+
+      for (String name : zoneNames) {
+        if (!name.isEmpty())
+          entries.add(normalize(name) + '\t' + z);
+      }
+    }
+
+    names = new String[entries.size()];
+    nameZones = new int[entries.size()];
+
+    int   i = 0;
+
+    for (String entry : entries) {
+      int   pos = entry.lastIndexOf('\t');
+
+      names[i] = entry.substring(0, pos);
+      nameZones[i++] = Integer.parseInt(entry.substring(pos + 1));
+    }
+  }
+
+  private TzZoneNameSearch(String[] zoneIds, String[] names, int[] nameZones)
+  {
+    this.zoneIds = zoneIds;
+    this.names = names;
+    this.nameZones = nameZones;
+  }
+
+  private static String normalize(String name)
+  {
+    return name.toLowerCase(Locale.ROOT).replace('_', ' ');
+  }
+
+  // First index in the names table which is >= s.
+  private int lowerBound(String s)
+  {
+    int   low = 0;
+    int   high = names.length;
+
+    while (low < high) {
+      int   mid = (low + high) >>> 1;
+
+      if (names[mid].compareTo(s) < 0)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+
+    return low;
+  }
+
+  /**
+   * Find the most populous zones with a name starting with the given prefix.
+   * @param prefix Text to match, not case sensitive.
+   * @param zoneIndices Receives the matching zone indices, most populous first. Its length sets the number of
+   *                    matches returned.
+   * @return Number of matches stored in zoneIndices.
+   */
+  public int search(String prefix, int[] zoneIndices)
+  {
+    String  key = normalize(prefix);
+    int     count = 0;
+    int     limit = zoneIndices.length;
+
+    for (int i = lowerBound(key); i < names.length && names[i].startsWith(key); ++i) {
+      int   z = nameZones[i];
+      int   pos = count;
+
+      // Insertion sort into the top matches found so far, ignoring zones already found.
+      while (pos > 0 && zoneIndices[pos - 1] > z)
+        --pos;
+
+      if (pos > 0 && zoneIndices[pos - 1] == z || pos >= limit)
+        continue;
+
+      int   end = Math.min(count, limit - 1);
+
+      System.arraycopy(zoneIndices, pos, zoneIndices, pos + 1, end - pos);
+      zoneIndices[pos] = z;
+      count = end + 1;
+    }
+
+    return count;
+  }
+
+  public List<String> search(String prefix, int limit)
+  {
+    int[]         zoneIndices = new int[limit];
+    int           count = search(prefix, zoneIndices);
+    List<String>  result = new ArrayList<>(count);
+
+    for (int i = 0; i < count; ++i)
+      result.add(zoneIds[zoneIndices[i]]);
+
+    return result;
+  }
+
+  public String getZoneId(int zoneIndex)
+  {
+    return zoneIds[zoneIndex];
+  }
+
+  public void write(Writer out) throws IOException
+  {
+    PrintWriter   pw = new PrintWriter(out);
+
+    pw.println(ZONES_HEADER + " " + zoneIds.length);
+
+    for (String zoneId : zoneIds)
+      pw.println(zoneId);
+
+    pw.println(NAMES_HEADER + " " + names.length);
+
+    for (int i = 0; i < names.length; ++i)
+      pw.println(names[i] + '\t' + nameZones[i]);
+
+    pw.flush();
+  }
+
+  public static TzZoneNameSearch read(InputStream in) throws IOException
+  {
+    BufferedReader  reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    String[]        zoneIds = new String[readCount(reader, ZONES_HEADER)];
+
+    for (int i = 0; i < zoneIds.length; ++i)
+      zoneIds[i] = reader.readLine();
+
+    String[]  names = new String[readCount(reader, NAMES_HEADER)];
+    int[]     nameZones = new int[names.length];
+
+    for (int i = 0; i < names.length; ++i) {
+      String  line = reader.readLine();
+      int     pos = (line == null ? -1 : line.lastIndexOf('\t'));
+
+      if (pos < 0)
+        throw new IOException("Invalid zone name table entry: " + line);
+
+      names[i] = line.substring(0, pos);
+      nameZones[i] = Integer.parseInt(line.substring(pos + 1));
+    }
+
+    return new TzZoneNameSearch(zoneIds, names, nameZones);
+  }
+
+  private static int readCount(BufferedReader reader, String header) throws IOException
+  {
+    String  line = reader.readLine();
+
+    if (line == null || !line.startsWith(header + " "))
+      throw new IOException("Invalid zone name table, expected \"" + header + "\" section");
+
+    return Integer.parseInt(line.substring(header.length() + 1));
+  }
+}
@@ -0,0 +1,212 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Serves time zone lookups from an immutable snapshot of fully decoded zones. A replacement snapshot can be built
+ * in the background and swapped in atomically; lookups never lock, and a lookup already holding the old snapshot
+ * simply finishes against it.
+ */
+public class TzZoneRegistry implements Closeable
+{
+  public static final class Snapshot
+  {
+    private final String                          source;
+    private final long                            generation;
+    private final long                            loadedAt;
+    private final Map<String, TzTransitionBlock>  zones;
+
+    private Snapshot(String source, long generation, Map<String, TzTransitionBlock> zones)
+    {
+      this.source = source;
+      this.generation = generation;
+      this.loadedAt = System.currentTimeMillis();
+      this.zones = Collections.unmodifiableMap(zones);
+    }
+
+    public String getSource()
+    {
+      return source;
+    }
+
+    public long getGeneration()
+    {
+      return generation;
+    }
+
+    public long getLoadedAt()
+    {
+      return loadedAt;
+    }
+
+    public Set<String> getZoneIds()
+    {
+      return zones.keySet();
+    }
+
+    public TzTransitionBlock getZone(String zoneId)
+    {
+      return zones.get(zoneId);
+    }
+  }
+
+  private static final Snapshot   EMPTY = new Snapshot(null, 0, Collections.emptyMap());
+
+  private final AtomicReference<Snapshot>   current = new AtomicReference<>(EMPTY);
+  private final AtomicLong                  generations = new AtomicLong();
+  private final ExecutorService             reloader = Executors.newSingleThreadExecutor(r -> {
+    Thread  thread = new Thread(r, "tz-registry-reload");
+
+    thread.setDaemon(true);
+
+    return thread;
+  });
+  private final int                         throughYear;
+
+  public TzZoneRegistry()
+  {
+    this(TzJsonZoneLoader.DEFAULT_THROUGH_YEAR);
+  }
+
+  /**
+   * @param throughYear Last year (UTC) for which to generate transitions from tail rules when loading JSON data.
+   */
+  public TzZoneRegistry(int throughYear)
+  {
+    this.throughYear = throughYear;
+  }
+
+  public Snapshot getSnapshot()
+  {
+    return current.get();
+  }
+
+  /**
+   * @return Transitions for the given zone or alias in the current snapshot, or null if the zone is unknown.
+   */
+  public TzTransitionBlock getZone(String zoneId)
+  {
+    return current.get().getZone(zoneId);
+  }
+
+  public int getUtcOffset(String zoneId, long epochSecond)
+  {
+    return getKnownZone(zoneId).getUtcOffsetAt(epochSecond);
+  }
+
+  public int getDstOffset(String zoneId, long epochSecond)
+  {
+    return getKnownZone(zoneId).getDstOffsetAt(epochSecond);
+  }
+
+  private TzTransitionBlock getKnownZone(String zoneId)
+  {
+    TzTransitionBlock   block = current.get().getZone(zoneId);
+
+    if (block == null)
+      throw new IllegalArgumentException("Unknown time zone: " + zoneId);
+
+    return block;
+  }
+
+  /**
+   * Load generated JSON zone data and make it the current snapshot once every zone has been decoded.
+   */
+  public Snapshot load(Path jsonFile) throws IOException
+  {
+    long                            generation = generations.incrementAndGet();
+    TzJsonZoneLoader                loader = TzJsonZoneLoader.load(Files.readAllBytes(jsonFile), throughYear, Integer.MAX_VALUE);
+    Map<String, TzTransitionBlock>  zones = new HashMap<>();
+
+    for (String zoneId : loader.getZoneIds()) {
+      TzTransitionBlock   block = loader.getZone(zoneId);
+
+      if (block != null)
+        zones.put(zoneId, block);
+    }
+
+    return install(jsonFile.toString(), generation, zones);
+  }
+
+  /**
+   * Make compiled zones, such as the output of TzCompiler.compileAll(), the current snapshot.
+   */
+  public Snapshot load(String source, Map<String, TzTransitionList> compiledZones)
+  {
+    long                                        generation = generations.incrementAndGet();
+    Map<TzTransitionBlock, TzTransitionBlock>   sharedBlocks = new HashMap<>();
+    Map<String, TzTransitionBlock>              zones = new HashMap<>();
+
+    for (Map.Entry<String, TzTransitionList> entry : compiledZones.entrySet()) {
+      TzTransitionBlock   block = TzTransitionBlock.fromTransitionList(entry.getValue());
+      TzTransitionBlock   shared = sharedBlocks.putIfAbsent(block, block);
+
+      zones.put(entry.getKey(), shared != null ? shared : block);
+    }
+
+    return install(source, generation, zones);
+  }
+
+  /**
+   * Load generated JSON zone data on a background thread. Reloads are applied in the order they are requested,
+   * and readers continue to see the previous snapshot until the new one is complete. If loading fails, the
+   * current snapshot is left in place and the returned future completes exceptionally.
+   */
+  public CompletableFuture<Snapshot> reload(Path jsonFile)
+  {
+    CompletableFuture<Snapshot>   result = new CompletableFuture<>();
+
+    reloader.execute(() -> {
+      try {
+        result.complete(load(jsonFile));
+      }
+      catch (Throwable t) {
+        result.completeExceptionally(t);
+      }
+    });
+
+    return result;
+  }
+
+  private Snapshot install(String source, long generation, Map<String, TzTransitionBlock> zones)
+  {
+    Snapshot  snapshot = new Snapshot(source, generation, zones);
+
+    // Never let a slower load replace a snapshot that was started later.
+    current.accumulateAndGet(snapshot, (oldSnapshot, newSnapshot) ->
+      newSnapshot.generation > oldSnapshot.generation ? newSnapshot : oldSnapshot);
+
+    return snapshot;
+  }
+
+  @Override
+  public void close()
+  {
+    reloader.shutdownNow();
+  }
+}
@@ -0,0 +1,357 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import static org.shetline.timezones.CompactTimeZoneGenerator.*;
+import static org.shetline.timezones.TzUtil.to_int;
+
+
+/**
+ * Serves compiled time zone output over HTTP on the loopback interface, keeping parsed and compiled data in
+ * memory between requests. Output variants are selected by query parameters:
+ *
+ *   GET /zones?years=1900,2050&round=1&rollbacks=1&filter=1&zone=America/New_York&format=json
+ *
+ * where format is js (the default), json, text or resolver (the binary table written by the -p option), and
+ * years can go no later than MAX_YEAR. Rendered variants are kept in an LRU cache and served with ETags. A variant
+ * is compiled and rendered only once, however many requests for it arrive while that's being done.
+ */
+public class TzZoneServer
+{
+  public static final int   DEFAULT_CACHE_SIZE = 64;
+  public static final int   MAX_YEAR = 2500;
+
+  private static final int  COMPILED_CACHE_SIZE = 4;
+  // Requests waiting for a variant another request is creating hold a thread without using a processor.
+  private static final int  MIN_THREADS = 4;
+
+  private static class Rendered
+  {
+    final byte[]  body;
+    final String  contentType;
+    final String  etag;
+
+    Rendered(byte[] body, String contentType)
+    {
+      this.body = body;
+      this.contentType = contentType;
+
+      try {
+        byte[]          digest = MessageDigest.getInstance("SHA-256").digest(body);
+        StringBuilder   sb = new StringBuilder("\"");
+
+        for (int i = 0; i < 12; ++i)
+          sb.append(String.format("%02x", digest[i]));
+
+        etag = sb.append('"').toString();
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  private static class VariantException extends Exception
+  {
+    private static final long serialVersionUID = 1L;
+
+    final int   status;
+
+    VariantException(int status, String message)
+    {
+      super(message);
+      this.status = status;
+    }
+  }
+
+  private final byte[]                                      archive;
+  private final boolean                                     includeSystemV;
+  private final String                                      tzVersion;
+  private final Map<Boolean, TzDatabase>                    databases = new HashMap<>();
+  private final Map<String, FutureTask<Map<String, TzTransitionList>>>
+                                                            compiledCache;
+  private final Map<String, FutureTask<Rendered>>           renderedCache;
+  private HttpServer                                        server;
+  private ExecutorService                                   executor;
+
+  public TzZoneServer(String urlOrVersion, boolean includeSystemV, int cacheSize) throws IOException, IanaParserException
+  {
+    IanaZonesAndRulesParser   parser = new IanaZonesAndRulesParser(false, false);
+
+    archive = IanaZonesAndRulesParser.downloadArchive(urlOrVersion);
+    this.includeSystemV = includeSystemV;
+    tzVersion = parser.parseArchive(new ByteArrayInputStream(archive), includeSystemV);
+    databases.put(false, parser.snapshot());
+    compiledCache = lruMap(COMPILED_CACHE_SIZE);
+    renderedCache = lruMap(Math.max(cacheSize, 1));
+  }
+
+  private static <V> Map<String, V> lruMap(int maxSize)
+  {
+    return new LinkedHashMap<>(16, 0.75F, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, V> eldest)
+      {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  public String getVersion()
+  {
+    return tzVersion;
+  }
+
+  public void start(int port) throws IOException
+  {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/zones", this::handleZones);
+    executor = Executors.newFixedThreadPool(Math.max(Runtime.getRuntime().availableProcessors(), MIN_THREADS));
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  public int getPort()
+  {
+    return server.getAddress().getPort();
+  }
+
+  public void stop()
+  {
+    server.stop(0);
+    executor.shutdown();
+  }
+
+  private void handleZones(HttpExchange exchange) throws IOException
+  {
+    try {
+      String  method = exchange.getRequestMethod();
+
+      if (!"GET".equals(method) && !"HEAD".equals(method)) {
+        sendError(exchange, 405, "Method not allowed");
+        return;
+      }
+
+      Rendered  rendered;
+
+      try {
+        rendered = getRendered(parseQuery(exchange.getRequestURI().getRawQuery()));
+      }
+      catch (VariantException e) {
+        sendError(exchange, e.status, e.getMessage());
+        return;
+      }
+      catch (IanaParserException | RuntimeException e) {
+        sendError(exchange, 500, e.getMessage());
+        return;
+      }
+
+      String  ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+
+      exchange.getResponseHeaders().set("ETag", rendered.etag);
+
+      if (ifNoneMatch != null && (ifNoneMatch.trim().equals("*") ||
+                                  Arrays.asList(ifNoneMatch.split("\\s*,\\s*")).contains(rendered.etag))) {
+        exchange.sendResponseHeaders(304, -1);
+        return;
+      }
+
+      exchange.getResponseHeaders().set("Content-Type", rendered.contentType);
+
+      if ("HEAD".equals(method))
+        exchange.sendResponseHeaders(200, -1);
+      else {
+        exchange.sendResponseHeaders(200, rendered.body.length);
+        exchange.getResponseBody().write(rendered.body);
+      }
+    }
+    finally {
+      exchange.close();
+    }
+  }
+
+  private static void sendError(HttpExchange exchange, int status, String message) throws IOException
+  {
+    byte[]  body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    exchange.getResponseBody().write(body);
+  }
+
+  private static TzOutputVariant parseQuery(String query) throws VariantException
+  {
+    TzOutputVariant   variant = new TzOutputVariant();
+
+    if (query == null || query.isEmpty())
+      return variant;
+
+    for (String param : query.split("&")) {
+      int     pos = param.indexOf('=');
+      String  name = URLDecoder.decode(pos < 0 ? param : param.substring(0, pos), StandardCharsets.UTF_8);
+      String  value = (pos < 0 ? "" : URLDecoder.decode(param.substring(pos + 1), StandardCharsets.UTF_8));
+      boolean flag = value.isEmpty() || "1".equals(value) || "true".equalsIgnoreCase(value);
+
+      switch (name) {
+        case "years":
+          String[]  parts = (" " + value + " ").split(",");
+
+          if (parts.length == 1)
+            variant.minYear = variant.maxYear = to_int(parts[0], -1);
+          else if (parts.length == 2) {
+            variant.minYear = to_int(parts[0], DEFAULT_MIN_YEAR);
+            variant.maxYear = to_int(parts[1], DEFAULT_MAX_YEAR);
+          }
+
+          if (parts.length > 2 || variant.minYear < 0 || variant.minYear > variant.maxYear)
+            throw new VariantException(400, "Invalid year range: " + value);
+          else if (variant.maxYear > MAX_YEAR)
+            throw new VariantException(400, "Years can go no later than " + MAX_YEAR + ": " + value);
+          break;
+
+        case "round":     variant.roundToMinutes = flag; break;
+        case "rollbacks": variant.fixCalendarRollbacks = flag; break;
+        case "filter":    variant.filtered = flag; break;
+        case "zone":      variant.singleZone = value; break;
+
+        case "format":
+          if (!TzOutputVariant.FORMATS.contains(value))
+            throw new VariantException(400, "Unknown format: " + value);
+
+          variant.format = value;
+          break;
+
+        default:
+          throw new VariantException(400, "Unknown parameter: " + name);
+      }
+    }
+
+    if (variant.singleZone != null)
+      variant.filtered = false;
+
+    return variant;
+  }
+
+  private Rendered getRendered(TzOutputVariant variant) throws VariantException, IanaParserException, IOException
+  {
+    return getCached(renderedCache, variant.key(), () -> {
+      byte[]  body = variant.render(getCompiled(variant), tzVersion);
+
+      if (body == null)
+        throw new VariantException(404, "Unknown time zone: " + variant.singleZone);
+
+      return new Rendered(body, variant.getContentType());
+    });
+  }
+
+  private TzDatabase getDatabase(TzOutputVariant variant) throws IOException, IanaParserException
+  {
+    synchronized (databases) {
+      TzDatabase  database = databases.get(variant.roundToMinutes);
+
+      if (database == null) {
+        IanaZonesAndRulesParser   parser = new IanaZonesAndRulesParser(variant.roundToMinutes, false);
+
+        parser.parseArchive(new ByteArrayInputStream(archive), includeSystemV);
+        database = parser.snapshot();
+        databases.put(variant.roundToMinutes, database);
+      }
+
+      return database;
+    }
+  }
+
+  private Map<String, TzTransitionList> getCompiled(TzOutputVariant variant) throws VariantException, IanaParserException,
+                                                                                 IOException
+  {
+    return getCached(compiledCache, variant.compiledKey(), () ->
+      Collections.unmodifiableMap(new TzCompiler(getDatabase(variant)).compileAll(variant.minYear, variant.maxYear)));
+  }
+
+  /**
+   * Get a value from one of the LRU caches, creating it on a miss. The cache is only locked long enough to look up
+   * or add an entry, so other variants can be served while one is being created. A thread asking for an entry which
+   * another thread is still creating waits for that result. A failure isn't cached, so the next request tries again.
+   */
+  private static <V> V getCached(Map<String, FutureTask<V>> cache, String key, Callable<V> create)
+      throws VariantException, IanaParserException, IOException
+  {
+    FutureTask<V>   task;
+    boolean         creator = false;
+
+    synchronized (cache) {
+      task = cache.get(key);
+
+      if (task == null) {
+        task = new FutureTask<>(create);
+        cache.put(key, task);
+        creator = true;
+      }
+    }
+
+    if (creator)
+      task.run();
+
+    try {
+      return task.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for " + key);
+    }
+    catch (ExecutionException e) {
+      synchronized (cache) {
+        cache.remove(key, task);
+      }
+
+      Throwable   cause = e.getCause();
+
+      if (cause instanceof VariantException)
+        throw (VariantException) cause;
+      else if (cause instanceof IanaParserException)
+        throw (IanaParserException) cause;
+      else if (cause instanceof IOException)
+        throw (IOException) cause;
+      else if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      else if (cause instanceof Error)
+        throw (Error) cause;
+      else
+        throw new RuntimeException(cause);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.shetline.timezones.tools;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.shetline.timezones.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * JMH benchmarks of each stage of the parse/compile/encode pipeline. They run against the tz database archive
+ * checked in as test/resources/tzdata2025bgtz.tar.gz, so that results from different runs measure the same input,
+ * unless another archive is given with -p archive=&lt;file&gt;. Run them with the GC profiler (-prof gc), as
+ * "make bench" does, to report allocation along with throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TzBenchmark
+{
+  public static final String  DEFAULT_ARCHIVE = "test/resources/tzdata2025bgtz.tar.gz";
+
+  private static final int    MIN_YEAR = 1900;
+  private static final int    MAX_YEAR = 2050;
+
+  @State(Scope.Benchmark)
+  public static class Archive
+  {
+    @Param(DEFAULT_ARCHIVE)
+    public String   archive;
+
+    byte[]                    data;
+    TzCompiler                compiler;
+    List<TzTransitionList>    transitionLists;
+    List<String>              tables = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException, IanaParserException
+    {
+      IanaZonesAndRulesParser   parser = new IanaZonesAndRulesParser(false, false);
+
+      data = Files.readAllBytes(new File(archive).toPath());
+      parser.parseArchive(new ByteArrayInputStream(data), false);
+      compiler = new TzCompiler(parser);
+      transitionLists = new ArrayList<>(compiler.compileAll(MIN_YEAR, MAX_YEAR).values());
+
+      for (TzTransitionList transitions : transitionLists)
+        tables.add(transitions.createCompactTransitionTable());
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Zone
+  {
+    @Param({"America/New_York", "Europe/London", "Asia/Tehran", "Africa/Casablanca"})
+    public String   zoneId;
+  }
+
+  @Benchmark
+  public String parseArchive(Archive archive) throws IOException, IanaParserException
+  {
+    return new IanaZonesAndRulesParser(false, false).parseArchive(new ByteArrayInputStream(archive.data), false);
+  }
+
+  @Benchmark
+  public TzTransitionList compile(Archive archive, Zone zone)
+  {
+    return archive.compiler.compile(zone.zoneId, MIN_YEAR, MAX_YEAR);
+  }
+
+  @Benchmark
+  public Map<String, TzTransitionList> compileAll(Archive archive)
+  {
+    return archive.compiler.compileAll(MIN_YEAR, MAX_YEAR);
+  }
+
+  /**
+   * Create the compact tables of all zones.
+   */
+  @Benchmark
+  public void createCompactTransitionTable(Archive archive, Blackhole blackhole)
+  {
+    for (TzTransitionList transitions : archive.transitionLists)
+      blackhole.consume(transitions.createCompactTransitionTable());
+  }
+
+  /**
+   * Parse the compact tables of all zones.
+   */
+  @Benchmark
+  public void parseCompactZoneTable(Archive archive, Blackhole blackhole)
+  {
+    for (String table : archive.tables)
+      blackhole.consume(TzTransitionList.parseCompactZoneTable(table));
+  }
+}
@@ -0,0 +1,276 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.shetline.timezones.tools;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Generates a synthetic tz database archive (.tar.gz) of any size, in the same layout as an IANA release, so
+ * that it can be read by IanaZonesAndRulesParser.parseArchive() or the generator's -l file:... option.
+ * <p>
+ * Zones are spread across the usual regional source files, each starting with local mean time, then switching
+ * between standard offsets, rule sets, fixed DST and plain standard time within the year range. Each rule set
+ * pairs DST start and end rules over consecutive runs of years, the last of which may continue indefinitely.
+ * Links, written to the backward file, each point to a random zone. Output is fully determined by the seed.
+ */
+public class TzCorpusGenerator
+{
+  private static final String[] REGIONS = {"africa", "antarctica", "asia", "australasia", "europe", "northamerica",
+                                           "southamerica"};
+  private static final String[] REGION_PREFIXES = {"Africa", "Antarctica", "Asia", "Australia", "Europe", "America",
+                                                   "America/Argentina"};
+  private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov",
+                                          "Dec"};
+  private static final String[] DAYS = {"lastSun", "Sun>=1", "Sun>=8", "Sun>=15", "lastSat", "Fri<=7", "1", "15", "28"};
+  private static final String[] TIMES = {"0:00", "1:00", "2:00", "2:00s", "1:00u", "3:00", "23:00", "0:30"};
+  private static final String[] SAVES = {"1:00", "1:00", "1:00", "0:30", "2:00", "0:20"};
+
+  int     zones = 1000;
+  int     ruleSets = 200;
+  int     links = 500;
+  int     rulesPerSet = 8;
+  int     minYear = 1850;
+  int     maxYear = 2100;
+  long    seed = 1;
+
+  public static void main(String[] args) throws IOException
+  {
+    TzCorpusGenerator   generator = new TzCorpusGenerator();
+    String              outFileName = null;
+
+    for (int i = 0; i < args.length; ++i) {
+      String  arg = args[i];
+
+      if ("-z".equals(arg) && i + 1 < args.length)
+        generator.zones = Math.max(Integer.parseInt(args[++i]), 1);
+      else if ("-r".equals(arg) && i + 1 < args.length)
+        generator.ruleSets = Math.max(Integer.parseInt(args[++i]), 1);
+      else if ("-l".equals(arg) && i + 1 < args.length)
+        generator.links = Math.max(Integer.parseInt(args[++i]), 0);
+      else if ("-p".equals(arg) && i + 1 < args.length)
+        generator.rulesPerSet = Math.max(Integer.parseInt(args[++i]) / 2 * 2, 2);
+      else if ("-y".equals(arg) && i + 1 < args.length) {
+        String[]  parts = args[++i].split(",");
+
+        generator.minYear = Integer.parseInt(parts[0].trim());
+        generator.maxYear = Integer.parseInt(parts[parts.length - 1].trim());
+      }
+      else if ("-s".equals(arg) && i + 1 < args.length)
+        generator.seed = Long.parseLong(args[++i]);
+      else if (outFileName == null && !arg.startsWith("-"))
+        outFileName = arg;
+      else
+        outFileName = null;
+    }
+
+    if (outFileName == null || generator.maxYear - generator.minYear < 2) {
+      System.err.println("Usage: TzCorpusGenerator [-z zones] [-r rule_sets] [-l links] [-p rules_per_set] " +
+                         "[-y min_year,max_year] [-s seed] output_file.tar.gz");
+      System.exit(1);
+    }
+
+    try (OutputStream out = new FileOutputStream(outFileName)) {
+      generator.write(out);
+    }
+  }
+
+  public byte[] generate() throws IOException
+  {
+    ByteArrayOutputStream   out = new ByteArrayOutputStream();
+
+    write(out);
+
+    return out.toByteArray();
+  }
+
+  public void write(OutputStream out) throws IOException
+  {
+    Random            random = new Random(seed);
+    StringBuilder[]   sources = new StringBuilder[REGIONS.length];
+    List<String>      zoneIds = new ArrayList<>();
+    StringBuilder     backward = new StringBuilder();
+
+    for (int i = 0; i < REGIONS.length; ++i)
+      sources[i] = new StringBuilder("# Synthetic tz database source\n\n");
+
+    for (int i = 0; i < ruleSets; ++i)
+      appendRuleSet(sources[i % REGIONS.length], String.format("R%04d", i), random);
+
+    for (int i = 0; i < zones; ++i) {
+      int     region = i % REGIONS.length;
+      String  zoneId = String.format("%s/Synth%05d", REGION_PREFIXES[region], i);
+
+      appendZone(sources[region], zoneId, random);
+      zoneIds.add(zoneId);
+    }
+
+    for (int i = 0; i < links; ++i)
+      backward.append("Link\t").append(zoneIds.get(random.nextInt(zoneIds.size())))
+        .append(String.format("\tSynthLink/L%05d\n", i));
+
+    try (TarArchiveOutputStream tarOut = new TarArchiveOutputStream(new GZIPOutputStream(new BufferedOutputStream(out) {
+      @Override
+      public void close() throws IOException
+      {
+        flush(); // Leave the caller's stream open.
+      }
+    }))) {
+      addEntry(tarOut, "version", "synthetic\n");
+
+      for (int i = 0; i < REGIONS.length; ++i)
+        addEntry(tarOut, REGIONS[i], sources[i].toString());
+
+      addEntry(tarOut, "backward", backward.toString());
+      tarOut.finish();
+    }
+  }
+
+  private static void addEntry(TarArchiveOutputStream tarOut, String name, String content) throws IOException
+  {
+    byte[]            bytes = content.getBytes(StandardCharsets.UTF_8);
+    TarArchiveEntry   entry = new TarArchiveEntry(name);
+
+    entry.setSize(bytes.length);
+    tarOut.putArchiveEntry(entry);
+    tarOut.write(bytes);
+    tarOut.closeArchiveEntry();
+  }
+
+  private void appendRuleSet(StringBuilder sb, String name, Random random)
+  {
+    int[]     bounds = splitYears(minYear, maxYear + 1, rulesPerSet / 2, random);
+    int       runs = bounds.length - 1;
+    boolean   southern = random.nextInt(4) == 0;
+    boolean   ongoing = random.nextBoolean();
+
+    for (int run = 0; run < runs; ++run) {
+      int     from = bounds[run];
+      int     to = bounds[run + 1] - 1;
+      String  toField = (run == runs - 1 && ongoing ? "max" : from == to ? "only" : Integer.toString(to));
+      int     startMonth = (southern ? 8 : 2) + random.nextInt(2);
+      int     endMonth = (southern ? 2 : 8) + random.nextInt(3);
+
+      sb.append(String.format("Rule\t%s\t%d\t%s\t-\t%s\t%s\t%s\t%s\tD\n", name, from, toField, MONTHS[startMonth],
+                              pick(DAYS, random), pick(TIMES, random), pick(SAVES, random)));
+      sb.append(String.format("Rule\t%s\t%d\t%s\t-\t%s\t%s\t%s\t0\tS\n", name, from, toField, MONTHS[endMonth],
+                              pick(DAYS, random), pick(TIMES, random)));
+    }
+
+    sb.append('\n');
+  }
+
+  private void appendZone(StringBuilder sb, String zoneId, Random random)
+  {
+    int     lmtEnd = minYear + random.nextInt(Math.min(50, (maxYear - minYear) / 2));
+    int[]   untilYears = splitYears(lmtEnd, maxYear, 1 + random.nextInt(4), random);
+    int     lines = untilYears.length - 1;
+    String  abbreviation = String.valueOf((char) ('A' + random.nextInt(26))) + (char) ('A' + random.nextInt(26));
+
+    sb.append(String.format("Zone\t%s\t%s\t-\tLMT\t%d %s %d %d:%02d\n", zoneId,
+                            formatOffset(random.nextInt(2 * 12 * 3600) - 12 * 3600, true), lmtEnd,
+                            pick(MONTHS, random), 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60)));
+
+    for (int line = 0; line < lines; ++line) {
+      String  stdOffset = formatOffset((random.nextInt(4 * 27) - 4 * 12) * 900, false);
+      String  rules;
+      String  format;
+
+      switch (random.nextInt(5)) {
+        case 0:
+          rules = "-";
+          format = abbreviation + "ST";
+          break;
+
+        case 1:
+          rules = "1:00";
+          format = abbreviation + "DT";
+          break;
+
+        case 2:
+          rules = String.format("R%04d", random.nextInt(ruleSets));
+          format = abbreviation + "ST/" + abbreviation + "DT";
+          break;
+
+        default:
+          rules = String.format("R%04d", random.nextInt(ruleSets));
+          format = abbreviation + "%sT";
+      }
+
+      sb.append("\t\t\t").append(stdOffset).append('\t').append(rules).append('\t').append(format);
+
+      if (line < lines - 1)
+        sb.append('\t').append(untilYears[line + 1]).append(' ').append(pick(MONTHS, random));
+
+      sb.append('\n');
+    }
+
+    sb.append('\n');
+  }
+
+  /**
+   * Split the years from start to end into random runs.
+   * @return Strictly increasing years, beginning with start and ending with end, one more than the number of runs,
+   *         which is count, or fewer if there aren't enough years.
+   */
+  private static int[] splitYears(int start, int end, int count, Random random)
+  {
+    SortedSet<Integer>  cuts = new TreeSet<>();
+
+    count = Math.min(count, end - start);
+
+    while (cuts.size() < count - 1)
+      cuts.add(start + 1 + random.nextInt(end - start - 1));
+
+    int[]   bounds = new int[count + 1];
+    int     i = 0;
+
+    bounds[i++] = start;
+
+    for (int cut : cuts)
+      bounds[i++] = cut;
+
+    bounds[i] = end;
+
+    return bounds;
+  }
+
+  private static String formatOffset(int seconds, boolean withSeconds)
+  {
+    String  sign = (seconds < 0 ? "-" : "");
+
+    seconds = Math.abs(seconds);
+
+    if (withSeconds)
+      return String.format("%s%d:%02d:%02d", sign, seconds / 3600, seconds / 60 % 60, seconds % 60);
+    else
+      return String.format("%s%d:%02d", sign, seconds / 3600, seconds / 60 % 60);
+  }
+
+  private static String pick(String[] choices, Random random)
+  {
+    return choices[random.nextInt(choices.length)];
+  }
+}
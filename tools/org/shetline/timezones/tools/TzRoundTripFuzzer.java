@@ -0,0 +1,503 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.shetline.timezones.tools;
+
+import org.shetline.timezones.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static org.shetline.timezones.TzUtil.MIN_JS_SAFE_INTEGER;
+
+
+/**
+ * Randomized round-trip test of compact transition tables. Synthetic transition lists are encoded with
+ * createCompactTransitionTable(), decoded with parseCompactZoneTable(), and compared. Cases are spread across
+ * threads, and the first failure found is shrunk to a minimal example.
+ * <p>
+ * Generated lists stay within what the compact format can express: the first transition is the initial state,
+ * with no DST, at MIN_JS_SAFE_INTEGER; there are at most 60 distinct offset/DST/name combinations; and names
+ * don't contain the format's separators (space, slash and semicolon). Otherwise values range well beyond real
+ * zones: offsets up to 25:59:59 either side of UTC, sub-minute offsets, DST and transition times, negative DST,
+ * gaps of thousands of years between transitions, and names with digits, punctuation and non-ASCII letters.
+ */
+public class TzRoundTripFuzzer
+{
+  private static final String   NAME_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+-_.,:'" +
+                                             "\u00c0\u00e9\u00df\u00f8\u0141\u03a9\u0416\u65e5";
+  private static final int      MAX_OFFSET = 26 * 3600 - 1;
+  private static final int      MAX_DICTIONARY = 60;
+  private static final long     MAX_GAP = 100_000_000_000L;
+
+  private long    seed = System.currentTimeMillis();
+  private long    cases = 1_000_000;
+  private int     threads = Runtime.getRuntime().availableProcessors();
+  private int     maxTransitions = 40;
+  private long    replayCase = -1;
+
+  /**
+   * A transition list in a form that's easy to generate and shrink. Index 0 is the initial state. For later
+   * transitions, deltas[i] is the time since the previous transition, or for index 1, since the epoch, just as
+   * in the compact table.
+   */
+  private static class Case
+  {
+    long[]    deltas;
+    int[]     utcOffsets;
+    int[]     dstOffsets;
+    String[]  names;
+
+    Case(int size)
+    {
+      deltas = new long[size];
+      utcOffsets = new int[size];
+      dstOffsets = new int[size];
+      names = new String[size];
+    }
+
+    int size()
+    {
+      return deltas.length;
+    }
+
+    Case copy()
+    {
+      Case  copy = new Case(0);
+
+      copy.deltas = deltas.clone();
+      copy.utcOffsets = utcOffsets.clone();
+      copy.dstOffsets = dstOffsets.clone();
+      copy.names = names.clone();
+
+      return copy;
+    }
+
+    Case without(int start, int count)
+    {
+      Case  result = new Case(size() - count);
+
+      for (int i = 0, j = 0; i < size(); ++i) {
+        if (i >= start && i < start + count)
+          continue;
+
+        result.deltas[j] = deltas[i];
+        result.utcOffsets[j] = utcOffsets[i];
+        result.dstOffsets[j] = dstOffsets[i];
+        result.names[j++] = names[i];
+      }
+
+      // Keep the times of the remaining transitions unchanged.
+      if (start + count < size() && start > 0) {
+        for (int i = start; i < start + count; ++i)
+          result.deltas[start] += deltas[i];
+      }
+      else if (start + count < size())
+        result.deltas[0] = 0;
+
+      return result;
+    }
+
+    long getTime(int index)
+    {
+      if (index == 0)
+        return MIN_JS_SAFE_INTEGER;
+
+      long  time = 0;
+
+      for (int i = 1; i <= index; ++i)
+        time += deltas[i];
+
+      return time;
+    }
+
+    TzTransitionList toTransitionList()
+    {
+      TzTransitionList  transitions = new TzTransitionList("Fuzz/Case");
+
+      for (int i = 0; i < size(); ++i)
+        transitions.add(new TzTransition(getTime(i), utcOffsets[i], dstOffsets[i], names[i]));
+
+      return transitions;
+    }
+
+    @Override
+    public String toString()
+    {
+      StringBuilder   sb = new StringBuilder();
+
+      for (int i = 0; i < size(); ++i)
+        sb.append(String.format("  %3d: %s, %+d, %+d, %s%n", i, (i == 0 ? "---" : Long.toString(getTime(i))),
+                                utcOffsets[i], dstOffsets[i], names[i]));
+
+      return sb.toString();
+    }
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    TzRoundTripFuzzer   fuzzer = new TzRoundTripFuzzer();
+
+    for (int i = 0; i < args.length; ++i) {
+      String  arg = args[i];
+
+      if ("-s".equals(arg) && i + 1 < args.length)
+        fuzzer.seed = Long.parseLong(args[++i]);
+      else if ("-n".equals(arg) && i + 1 < args.length)
+        fuzzer.cases = Long.parseLong(args[++i]);
+      else if ("-t".equals(arg) && i + 1 < args.length)
+        fuzzer.threads = Math.max(Integer.parseInt(args[++i]), 1);
+      else if ("-m".equals(arg) && i + 1 < args.length)
+        fuzzer.maxTransitions = Math.max(Integer.parseInt(args[++i]), 0);
+      else if ("-r".equals(arg) && i + 1 < args.length)
+        fuzzer.replayCase = Long.parseLong(args[++i]);
+      else {
+        System.err.println("Usage: TzRoundTripFuzzer [-s seed] [-n cases] [-t threads] [-m max_transitions] [-r case]");
+        System.exit(1);
+      }
+    }
+
+    System.exit(fuzzer.run() ? 0 : 1);
+  }
+
+  public boolean run() throws InterruptedException
+  {
+    if (replayCase >= 0)
+      return report(replayCase, generate(replayCase));
+
+    System.out.println("Seed " + seed + ", " + cases + " cases, " + threads + " threads");
+
+    AtomicLong        next = new AtomicLong();
+    AtomicLong        failedCase = new AtomicLong(Long.MAX_VALUE);
+    ExecutorService   executor = Executors.newFixedThreadPool(threads);
+    long              start = System.nanoTime();
+
+    for (int t = 0; t < threads; ++t) {
+      executor.execute(() -> {
+        long  index;
+
+        while ((index = next.getAndIncrement()) < cases && index < failedCase.get()) {
+          if (check(generate(index)) != null)
+            failedCase.accumulateAndGet(index, Math::min);
+        }
+      });
+    }
+
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+    double  seconds = (System.nanoTime() - start) / 1E9;
+
+    if (failedCase.get() != Long.MAX_VALUE)
+      return report(failedCase.get(), generate(failedCase.get()));
+
+    System.out.printf("%d cases passed in %.1f seconds (%.0f cases/s)%n", cases, seconds, cases / seconds);
+
+    return true;
+  }
+
+  private Case generate(long index)
+  {
+    SplittableRandom  random = new SplittableRandom(seed + index * 0x9E3779B97F4A7C15L);
+    int               size = 1 + random.nextInt(maxTransitions + 1);
+    int               entryCount = 1 + random.nextInt(Math.min(size, MAX_DICTIONARY));
+    Case              c = new Case(size);
+    int[]             utcOffsets = new int[entryCount];
+    int[]             dstOffsets = new int[entryCount];
+    String[]          names = new String[entryCount];
+
+    for (int i = 0; i < entryCount; ++i) {
+      dstOffsets[i] = (i == 0 ? 0 : randomDst(random));
+      utcOffsets[i] = Math.max(Math.min(randomOffset(random) + dstOffsets[i], MAX_OFFSET), -MAX_OFFSET);
+      names[i] = randomName(random);
+    }
+
+    long  time = (random.nextBoolean() ? -1 : 1) * (long) (random.nextDouble() * random.nextDouble() * MAX_GAP);
+
+    for (int i = 0; i < size; ++i) {
+      int   entry = (i == 0 ? 0 : random.nextInt(entryCount));
+
+      c.utcOffsets[i] = utcOffsets[entry];
+      c.dstOffsets[i] = dstOffsets[entry];
+      c.names[i] = names[entry];
+      c.deltas[i] = (i == 0 ? 0 : i == 1 ? time : randomGap(random));
+    }
+
+    return c;
+  }
+
+  private static int randomOffset(SplittableRandom random)
+  {
+    switch (random.nextInt(10)) {
+      case 0:
+      case 1:
+      case 2:
+      case 3:  return (random.nextInt(29) - 14) * 3600;
+      case 4:
+      case 5:  return (random.nextInt(113) - 56) * 900;
+      case 6:
+      case 7:  return random.nextInt(-MAX_OFFSET, MAX_OFFSET + 1);
+      case 8:  return random.nextInt(-59, 60);
+      default: return (random.nextBoolean() ? -MAX_OFFSET : MAX_OFFSET);
+    }
+  }
+
+  private static int randomDst(SplittableRandom random)
+  {
+    switch (random.nextInt(10)) {
+      case 0:
+      case 1:
+      case 2:
+      case 3:
+      case 4:  return 0;
+      case 5:
+      case 6:  return 3600;
+      case 7:  return -3600;
+      case 8:  return (random.nextInt(9) - 4) * 900;
+      default: return random.nextInt(-7200, 7201);
+    }
+  }
+
+  private static String randomName(SplittableRandom random)
+  {
+    if (random.nextInt(5) == 0)
+      return null;
+
+    StringBuilder   sb = new StringBuilder();
+    int             length = 1 + random.nextInt(6);
+
+    for (int i = 0; i < length; ++i)
+      sb.append(NAME_CHARS.charAt(random.nextInt(NAME_CHARS.length())));
+
+    return sb.toString();
+  }
+
+  private static long randomGap(SplittableRandom random)
+  {
+    switch (random.nextInt(10)) {
+      case 0:
+      case 1:  return 1 + random.nextInt(120);
+      case 2:
+      case 3:
+      case 4:  return 60L * (1 + random.nextInt(527040));
+      case 5:
+      case 6:  return 1 + random.nextInt(31622400);
+      case 7:  return 60L * (1 + random.nextLong(MAX_GAP / 60));
+      default: return 1 + random.nextLong(MAX_GAP);
+    }
+  }
+
+  /**
+   * @return Description of the first difference after a round trip, or null if the round trip succeeds.
+   */
+  private static String check(Case c)
+  {
+    TzTransitionList  transitions = c.toTransitionList();
+    String            table;
+    TzTransitionList  parsed;
+
+    try {
+      table = transitions.createCompactTransitionTable(false);
+      parsed = TzTransitionList.parseCompactZoneTable(table);
+    }
+    catch (RuntimeException e) {
+      return e.toString();
+    }
+
+    TzTransitionBlock   expected = TzTransitionBlock.fromTransitionList(transitions);
+    TzTransitionBlock   actual = TzTransitionBlock.fromTransitionList(parsed);
+
+    if (expected.equals(actual))
+      return null;
+    else if (expected.size() != actual.size())
+      return "expected " + expected.size() + " transitions, decoded " + actual.size();
+
+    for (int i = 0; i < expected.size(); ++i) {
+      if (expected.getTime(i) != actual.getTime(i) || expected.getUtcOffset(i) != actual.getUtcOffset(i) ||
+          expected.getDstOffset(i) != actual.getDstOffset(i) || !Objects.equals(expected.getName(i), actual.getName(i)))
+        return "transition " + i + " decoded as " + actual.getTime(i) + ", " + actual.getUtcOffset(i) + ", " +
+               actual.getDstOffset(i) + ", " + actual.getName(i);
+    }
+
+    return null;
+  }
+
+  private boolean report(long index, Case c)
+  {
+    String  failure = check(c);
+
+    if (failure == null) {
+      System.out.println("Case " + index + " passed");
+
+      return true;
+    }
+
+    int   originalSize = c.size();
+
+    c = shrink(c);
+
+    System.out.println("*** Case " + index + " failed (replay with -s " + seed + " -r " + index + ")");
+    System.out.println("Shrunk from " + originalSize + " to " + c.size() + " transitions (time, UTC offset, DST offset, name):");
+    System.out.print(c);
+    System.out.println("Table: " + c.toTransitionList().createCompactTransitionTable(false));
+    System.out.println("Failure: " + check(c));
+
+    return false;
+  }
+
+  /**
+   * Repeatedly apply the first simplification which still fails, until none does.
+   */
+  private static Case shrink(Case c)
+  {
+    boolean   shrunk = true;
+
+    while (shrunk) {
+      shrunk = false;
+
+      for (Case candidate : simplifications(c)) {
+        if (check(candidate) != null) {
+          c = candidate;
+          shrunk = true;
+          break;
+        }
+      }
+    }
+
+    return c;
+  }
+
+  private static List<Case> simplifications(Case c)
+  {
+    List<Case>  candidates = new ArrayList<>();
+
+    for (int count = c.size() - 1; count > 0; count /= 2) {
+      for (int start = 1; start + count <= c.size(); start += count)
+        candidates.add(c.without(start, count));
+    }
+
+    for (int i = 0; i < c.size(); ++i) {
+      if (c.names[i] != null) {
+        candidates.add(withName(c, i, null));
+
+        if (c.names[i].length() > 1)
+          candidates.add(withName(c, i, c.names[i].substring(1)));
+
+        if (!c.names[i].matches("[A-Z]+"))
+          candidates.add(withName(c, i, "X"));
+      }
+
+      for (int offset : simpler(c.utcOffsets[i])) {
+        Case  candidate = c.copy();
+
+        candidate.utcOffsets[i] = offset;
+        candidates.add(candidate);
+      }
+
+      for (int offset : simpler(c.dstOffsets[i])) {
+        Case  candidate = c.copy();
+
+        candidate.dstOffsets[i] = offset;
+        candidates.add(candidate);
+      }
+
+      if (i > 0) {
+        for (long delta : simpler(c.deltas[i])) {
+          // Either move all later transitions along with this one, or keep the time of the next transition
+          // unchanged. Offering only the latter can take one step per second to shrink the time of a transition
+          // that has to stay close to the next one.
+          Case  shifted = c.copy();
+
+          shifted.deltas[i] = delta;
+          candidates.add(shifted);
+
+          if (i + 1 < c.size()) {
+            Case  kept = shifted.copy();
+
+            kept.deltas[i + 1] += c.deltas[i] - delta;
+            candidates.add(kept);
+          }
+        }
+      }
+    }
+
+    // A shrunk case has to stay within what generated cases can contain, or it may fail only for breaking the
+    // format's constraints, such as a delta of 0 putting two transitions at the same moment.
+    candidates.removeIf(candidate -> !withinConstraints(candidate));
+
+    return candidates;
+  }
+
+  /**
+   * @return true if the case keeps to the same constraints as generated cases (see the class comment).
+   */
+  private static boolean withinConstraints(Case c)
+  {
+    Set<String>   entries = new HashSet<>();
+
+    if (c.dstOffsets[0] != 0)
+      return false;
+
+    for (int i = 0; i < c.size(); ++i) {
+      if (i > 1 && c.deltas[i] <= 0)
+        return false;
+      else if (Math.abs(c.utcOffsets[i]) > MAX_OFFSET)
+        return false;
+      else if (c.names[i] != null && !c.names[i].matches("[^ /;]+"))
+        return false;
+
+      entries.add(c.utcOffsets[i] + "/" + c.dstOffsets[i] + "/" + c.names[i]);
+    }
+
+    return entries.size() <= MAX_DICTIONARY;
+  }
+
+  private static Case withName(Case c, int index, String name)
+  {
+    Case  candidate = c.copy();
+
+    candidate.names[index] = name;
+
+    return candidate;
+  }
+
+  private static int[] simpler(int value)
+  {
+    return Arrays.stream(simpler((long) value)).mapToInt(v -> (int) v).toArray();
+  }
+
+  /**
+   * @return Values closer to zero, or rounder, than the given value, most simplified first.
+   */
+  private static long[] simpler(long value)
+  {
+    Set<Long>   values = new LinkedHashSet<>();
+
+    values.add(0L);
+    values.add(value % 60);
+    values.add(value % 3600);
+    values.add(value / 3600 * 3600);
+    values.add(value / 60 * 60);
+    values.add(value / 2);
+    values.add(value - Long.signum(value));
+    values.remove(value);
+
+    return values.stream().filter(v -> Math.abs(v) < Math.abs(value)).mapToLong(Long::longValue).toArray();
+  }
+}
@@ -0,0 +1,182 @@
+/*
+  Copyright  2021 Kerry Shetline, kerry@shetline.com
+
+  MIT license: https://opensource.org/licenses/MIT
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+  documentation files (the "Software"), to deal in the Software without restriction, including without limitation the
+  rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+  persons to whom the Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+  Software.
+
+  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+  WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+  OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.shetline.timezones.tools;
+
+import org.shetline.timezones.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+
+/**
+ * Runs the full parse/compile/render pipeline over synthetic tz databases of doubling size, to show which
+ * stages grow faster than the number of zones. After warming up on the smallest database, the best of several
+ * runs of each stage is reported, along with the growth exponent relative to the previous size: 1.0 is linear,
+ * 2.0 quadratic.
+ */
+public class TzScalingBenchmark
+{
+  private static final double   SUPERLINEAR_EXPONENT = 1.3;
+  private static final String[] STAGES = {"parse", "compile", "render"};
+
+  private int   startZones = 250;
+  private int   steps = 5;
+  private int   rulesPerSet = 8;
+  private int   minYear = 1850;
+  private int   maxYear = 2100;
+  private int   warmupIterations = 5;
+  private int   repetitions = 3;
+  private long  seed = 1;
+
+  private interface Stage
+  {
+    Object run() throws Exception;
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    TzScalingBenchmark  benchmark = new TzScalingBenchmark();
+
+    for (int i = 0; i < args.length; ++i) {
+      String  arg = args[i];
+
+      if ("-z".equals(arg) && i + 1 < args.length)
+        benchmark.startZones = Math.max(Integer.parseInt(args[++i]), 10);
+      else if ("-k".equals(arg) && i + 1 < args.length)
+        benchmark.steps = Math.max(Integer.parseInt(args[++i]), 1);
+      else if ("-p".equals(arg) && i + 1 < args.length)
+        benchmark.rulesPerSet = Integer.parseInt(args[++i]);
+      else if ("-y".equals(arg) && i + 1 < args.length) {
+        String[]  parts = args[++i].split(",");
+
+        benchmark.minYear = Integer.parseInt(parts[0].trim());
+        benchmark.maxYear = Integer.parseInt(parts[parts.length - 1].trim());
+      }
+      else if ("-w".equals(arg) && i + 1 < args.length)
+        benchmark.warmupIterations = Math.max(Integer.parseInt(args[++i]), 0);
+      else if ("-n".equals(arg) && i + 1 < args.length)
+        benchmark.repetitions = Math.max(Integer.parseInt(args[++i]), 1);
+      else if ("-s".equals(arg) && i + 1 < args.length)
+        benchmark.seed = Long.parseLong(args[++i]);
+      else {
+        System.err.println("Usage: TzScalingBenchmark [-z start_zones] [-k steps] [-p rules_per_set] " +
+                           "[-y min_year,max_year] [-w warmup_iterations] [-n repetitions] [-s seed]");
+        System.exit(1);
+      }
+    }
+
+    benchmark.run(System.out);
+  }
+
+  public void run(PrintStream out) throws Exception
+  {
+    File      archive = File.createTempFile("tzcorpus", ".tar.gz");
+    int       previousZones = 0;
+    double[]  previous = null;
+
+    archive.deleteOnExit();
+    Files.write(archive.toPath(), createGenerator(startZones).generate());
+
+    TzPipeline  warmupPipeline = TzPipeline.builder().archive(archive).years(minYear, maxYear).build();
+
+    for (int i = 0; i < warmupIterations; ++i) {
+      TzDatabase  database = warmupPipeline.parse();
+
+      warmupPipeline.render(warmupPipeline.compile(database), database.getVersion());
+    }
+
+    out.printf("Years %d-%d, %d rules per set, best of %d runs%n%n", minYear, maxYear, rulesPerSet, repetitions);
+    out.printf("%8s %8s %8s", "zones", "rules", "links");
+
+    for (String stage : STAGES)
+      out.printf(" %10s %8s %6s", stage + " ms", "us/zone", "exp");
+
+    out.println();
+
+    for (int step = 0, zones = startZones; step < steps; ++step, zones *= 2) {
+      TzCorpusGenerator   generator = createGenerator(zones);
+
+      Files.write(archive.toPath(), generator.generate());
+
+      TzPipeline                            pipeline = TzPipeline.builder().archive(archive).years(minYear, maxYear).build();
+      TzDatabase[]                          database = new TzDatabase[1];
+      List<Map<String, TzTransitionList>>   compiled = new ArrayList<>(1);
+      double[]                              millis = new double[STAGES.length];
+
+      millis[0] = best(() -> database[0] = pipeline.parse());
+      millis[1] = best(() -> {
+        compiled.clear();
+        compiled.add(pipeline.compile(database[0]));
+        return compiled;
+      });
+      millis[2] = best(() -> pipeline.render(compiled.get(0), database[0].getVersion()));
+
+      out.printf("%8d %8d %8d", zones, generator.ruleSets * rulesPerSet, generator.links);
+
+      for (int i = 0; i < STAGES.length; ++i) {
+        String  exponent = "";
+
+        if (previous != null && previous[i] > 0 && millis[i] > 0) {
+          double  e = Math.log(millis[i] / previous[i]) / Math.log((double) zones / previousZones);
+
+          exponent = String.format("%.2f%s", e, e > SUPERLINEAR_EXPONENT ? "*" : "");
+        }
+
+        out.printf(" %10.1f %8.1f %6s", millis[i], millis[i] * 1000 / zones, exponent);
+      }
+
+      out.println();
+      previous = millis;
+      previousZones = zones;
+    }
+
+    out.println();
+    out.println("* Growing faster than " + SUPERLINEAR_EXPONENT + " power of zone count");
+  }
+
+  private TzCorpusGenerator createGenerator(int zones)
+  {
+    TzCorpusGenerator   generator = new TzCorpusGenerator();
+
+    generator.zones = zones;
+    generator.ruleSets = Math.max(zones / 5, 1);
+    generator.links = zones / 4;
+    generator.rulesPerSet = rulesPerSet;
+    generator.minYear = minYear;
+    generator.maxYear = maxYear;
+    generator.seed = seed;
+
+    return generator;
+  }
+
+  private double best(Stage stage) throws Exception
+  {
+    long  best = Long.MAX_VALUE;
+
+    for (int i = 0; i < repetitions; ++i) {
+      long  start = System.nanoTime();
+
+      stage.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+
+    return best / 1E6;
+  }
+}
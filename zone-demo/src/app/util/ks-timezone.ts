@@ -20,7 +20,7 @@
 import * as _ from 'lodash';
 import * as M_ from './ks-math';
 import { padLeft } from './ks-util';
-import { getDateOfNthWeekdayOfMonth_SGC, getDayOnOrAfter_SGC, LAST } from './ks-calendar';
+import { getDateOfNthWeekdayOfMonth_SGC, getDayNumber_SGC, getDayOfWeek, LAST } from './ks-calendar';
 import { dateAndTimeFromMillis_SGC, DAY_MSEC, millisFromDateTime_SGC, MINUTE_MSEC } from './ks-date-time-zone-common';
 
 export interface RegionAndSubzones {
@@ -81,10 +81,12 @@ class Rule {
   public getTransitionTime(year: number, stdOffset: number, dstOffset: number): number {
     let date: number;
 
+    // The day of the week on or after (positive dayOfMonth) or on or before (negative dayOfMonth) the given date
+    // can fall in the next or previous month, leaving a date past the end of this month or less than 1.
     if (this.dayOfWeek >= 0 && this.dayOfMonth > 0)
-      date = getDayOnOrAfter_SGC(year, this.month, this.dayOfWeek - 1, this.dayOfMonth);
+      date = this.dayOfMonth + M_.mod(this.dayOfWeek - 1 - getDayOfWeek(getDayNumber_SGC(year, this.month, this.dayOfMonth)), 7);
     else if (this.dayOfWeek >= 0 && this.dayOfMonth < 0)
-      date = getDayOnOrAfter_SGC(year, this.month, this.dayOfWeek - 1, -this.dayOfMonth);
+      date = -this.dayOfMonth - M_.mod(getDayOfWeek(getDayNumber_SGC(year, this.month, -this.dayOfMonth)) - this.dayOfWeek + 1, 7);
     else if (this.dayOfWeek >= 0 && this.dayOfMonth === 0)
       date = getDateOfNthWeekdayOfMonth_SGC(year, this.month, this.dayOfWeek - 1, LAST);
     else